@@ -1,6 +1,7 @@
 package dev.socketmods.socketperms.api;
 
 import com.mojang.authlib.GameProfile;
+import dev.socketmods.socketperms.api.context.ContextKey;
 import dev.socketmods.socketperms.api.context.PermissionContext;
 import net.minecraft.util.ResourceLocation;
 
@@ -26,4 +27,24 @@ public class DefaultPermissionHandler implements IPermissionHandler {
     public IPermissionValue getPermissionValue(ResourceLocation node, GameProfile user, PermissionContext context) {
         return IPermissionValue.EMPTY;
     }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @implNote This default permission handler never reads any context value.
+     */
+    @Override
+    public boolean usesContext(ContextKey<?> key) {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @implNote This default permission handler never reads any context value.
+     */
+    @Override
+    public boolean usesContext() {
+        return false;
+    }
 }
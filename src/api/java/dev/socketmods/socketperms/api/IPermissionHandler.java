@@ -1,9 +1,16 @@
 package dev.socketmods.socketperms.api;
 
+import com.google.common.collect.Maps;
 import com.mojang.authlib.GameProfile;
+import dev.socketmods.socketperms.api.context.ContextKey;
 import dev.socketmods.socketperms.api.context.PermissionContext;
 import net.minecraft.util.ResourceLocation;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Interface for a permission handler.
  * <p>
@@ -30,4 +37,105 @@ public interface IPermissionHandler {
      * IPermissionValue#isEmpty() empty permission value}
      */
     IPermissionValue getPermissionValue(ResourceLocation node, GameProfile user, PermissionContext context);
+
+    /**
+     * Return a permission value for the given permission node handle, user, and context, or an {@link
+     * IPermissionValue#isEmpty() empty permission value} if there is no such value for these parameters.
+     * <p>
+     * Implementations are encouraged to override this method to look up data by the {@linkplain PermissionNode#getId() ID of
+     * the handle} instead of hashing the node.
+     *
+     * @param node    The permission node handle
+     * @param user    The user who triggered the permission check
+     * @param context The permission context
+     *
+     * @return The permission value for the given parameters if such a value exists, otherwise an {@link
+     * IPermissionValue#isEmpty() empty permission value}
+     *
+     * @implSpec The default implementation calls {@link #getPermissionValue(ResourceLocation, GameProfile, PermissionContext)}
+     * with the {@linkplain PermissionNode#getNode() node of the handle}.
+     */
+    default IPermissionValue getPermissionValue(PermissionNode node, GameProfile user, PermissionContext context) {
+        return getPermissionValue(node.getNode(), user, context);
+    }
+
+    /**
+     * Return a future completing with the permission value for the given permission node, user, and context, or with an
+     * {@link IPermissionValue#isEmpty() empty permission value} if there is no such value for these parameters.
+     * <p>
+     * This is meant for lookups which may need to load data of the user first, such as for users who are not online, so
+     * that the calling thread is never blocked. Implementations which load data of users from storage should override this
+     * method to load it in the background.
+     *
+     * @param node    The permission node
+     * @param user    The user whose permission is looked up
+     * @param context The permission context
+     *
+     * @return A future completing with the permission value for the given parameters if such a value exists, otherwise with
+     * an {@link IPermissionValue#isEmpty() empty permission value}
+     *
+     * @implSpec The default implementation returns a completed future holding the result of {@link
+     * #getPermissionValue(ResourceLocation, GameProfile, PermissionContext)}.
+     */
+    default CompletableFuture<IPermissionValue> getPermissionValueAsync(ResourceLocation node, GameProfile user,
+        PermissionContext context) {
+        return CompletableFuture.completedFuture(getPermissionValue(node, user, context));
+    }
+
+    /**
+     * Return {@code true} if this permission handler may read the value of the given context key from a permission context,
+     * otherwise {@code false}.
+     * <p>
+     * Callers may skip adding values for context keys which are not used by the permission handler, as these values will
+     * never be read.
+     *
+     * @param key The context key
+     *
+     * @return {@code true} if the value of the context key may be read, otherwise {@code false}
+     *
+     * @implSpec The default implementation returns {@code true}, for any context key.
+     */
+    default boolean usesContext(ContextKey<?> key) {
+        return true;
+    }
+
+    /**
+     * Return {@code true} if this permission handler may read any value from a permission context, otherwise {@code false}.
+     * <p>
+     * If this returns {@code false}, callers may skip building a permission context entirely and pass {@link
+     * PermissionContext#EMPTY} instead.
+     *
+     * @return {@code true} if any context value may be read, otherwise {@code false}
+     *
+     * @implSpec The default implementation returns {@code true}.
+     */
+    default boolean usesContext() {
+        return true;
+    }
+
+    /**
+     * Return the permission values for the given permission nodes, for the same user and context.
+     * <p>
+     * The returned map holds an entry for each of the given nodes, in the iteration order of the given collection. Nodes which
+     * have no value for these parameters are mapped to an {@link IPermissionValue#isEmpty() empty permission value}.
+     * <p>
+     * Implementations are encouraged to override this method to resolve the user and context only once for the whole batch.
+     *
+     * @param nodes   The permission nodes
+     * @param user    The user who triggered the permission check
+     * @param context The permission context
+     *
+     * @return An unmodifiable map of the given nodes to their permission values
+     *
+     * @implSpec The default implementation calls {@link #getPermissionValue(ResourceLocation, GameProfile, PermissionContext)}
+     * for each of the given nodes.
+     */
+    default Map<ResourceLocation, IPermissionValue> getPermissionValues(Collection<ResourceLocation> nodes, GameProfile user,
+        PermissionContext context) {
+        final Map<ResourceLocation, IPermissionValue> values = Maps.newLinkedHashMapWithExpectedSize(nodes.size());
+        for (ResourceLocation node : nodes) {
+            values.put(node, getPermissionValue(node, user, context));
+        }
+        return Collections.unmodifiableMap(values);
+    }
 }
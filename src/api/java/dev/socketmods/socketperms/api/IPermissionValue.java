@@ -11,6 +11,26 @@ public interface IPermissionValue {
             return true;
         }
 
+        @Override
+        public boolean getBoolean(boolean def) {
+            return def;
+        }
+
+        @Override
+        public int getInt(int def) {
+            return def;
+        }
+
+        @Override
+        public long getLong(long def) {
+            return def;
+        }
+
+        @Override
+        public double getDouble(double def) {
+            return def;
+        }
+
         @Override
         public String toString() {
             return "EMPTY";
@@ -34,4 +54,49 @@ public interface IPermissionValue {
     default OptionalDouble asDouble() {
         return OptionalDouble.empty();
     }
+
+    /**
+     * Return this value as a {@code boolean}, or the given default if this value has no boolean representation.
+     *
+     * @param def The default value
+     *
+     * @return The boolean value, or the default
+     */
+    default boolean getBoolean(boolean def) {
+        final OptionalBoolean value = asBoolean();
+        return value.isPresent() ? value.getAsBoolean() : def;
+    }
+
+    /**
+     * Return this value as an {@code int}, or the given default if this value has no int representation.
+     *
+     * @param def The default value
+     *
+     * @return The int value, or the default
+     */
+    default int getInt(int def) {
+        return asInt().orElse(def);
+    }
+
+    /**
+     * Return this value as a {@code long}, or the given default if this value has no long representation.
+     *
+     * @param def The default value
+     *
+     * @return The long value, or the default
+     */
+    default long getLong(long def) {
+        return asLong().orElse(def);
+    }
+
+    /**
+     * Return this value as a {@code double}, or the given default if this value has no double representation.
+     *
+     * @param def The default value
+     *
+     * @return The double value, or the default
+     */
+    default double getDouble(double def) {
+        return asDouble().orElse(def);
+    }
 }
@@ -2,13 +2,17 @@ package dev.socketmods.socketperms.api;
 
 import com.google.common.base.Preconditions;
 import com.mojang.authlib.GameProfile;
+import dev.socketmods.socketperms.api.context.ContextKey;
 import dev.socketmods.socketperms.api.context.PermissionContext;
 import net.minecraft.util.ResourceLocation;
 import net.minecraftforge.common.MinecraftForge;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import javax.annotation.Nullable;
 
 /**
@@ -77,6 +81,135 @@ public class PermissionAPI {
         return handler.getPermissionValue(node, user, context);
     }
 
+    /**
+     * Return a permission value for the given permission node handle, user, and context, or an {@link
+     * IPermissionValue#isEmpty() empty permission value} if there is no such value for these parameters.
+     *
+     * @param node    The permission node handle
+     * @param user    The user who triggered the permission check
+     * @param context The permission context
+     *
+     * @return The permission value for the given parameters if such a value exists, otherwise an {@link
+     * IPermissionValue#isEmpty() empty permission value}
+     *
+     * @see IPermissionHandler#getPermissionValue(PermissionNode, GameProfile, PermissionContext)
+     */
+    public static IPermissionValue getPermissionValue(PermissionNode node, GameProfile user, PermissionContext context) {
+        return handler.getPermissionValue(node, user, context);
+    }
+
+    /**
+     * Return a future completing with the permission value for the given permission node, user, and context, without
+     * blocking the calling thread. Use this for users who may not be online, whose data may first need to be loaded.
+     *
+     * @param node    The permission node
+     * @param user    The user whose permission is looked up
+     * @param context The permission context
+     *
+     * @return A future completing with the permission value for the given parameters if such a value exists, otherwise with
+     * an {@link IPermissionValue#isEmpty() empty permission value}
+     *
+     * @see IPermissionHandler#getPermissionValueAsync(ResourceLocation, GameProfile, PermissionContext)
+     */
+    public static CompletableFuture<IPermissionValue> getPermissionValueAsync(ResourceLocation node, GameProfile user,
+        PermissionContext context) {
+        return handler.getPermissionValueAsync(node, user, context);
+    }
+
+    /**
+     * Return the permission values for the given permission nodes, for the same user and context.
+     * <p>
+     * Prefer this method over repeated calls to {@link #getPermissionValue(ResourceLocation, GameProfile, PermissionContext)}
+     * when checking several nodes at once, as the permission handler may resolve the user and context only once.
+     *
+     * @param nodes   The permission nodes
+     * @param user    The user who triggered the permission check
+     * @param context The permission context
+     *
+     * @return An unmodifiable map of the given nodes to their permission values
+     *
+     * @see IPermissionHandler#getPermissionValues(Collection, GameProfile, PermissionContext)
+     */
+    public static Map<ResourceLocation, IPermissionValue> getPermissionValues(Collection<ResourceLocation> nodes,
+        GameProfile user, PermissionContext context) {
+        return handler.getPermissionValues(nodes, user, context);
+    }
+
+    /**
+     * Return the permission value for the given permission node, user, and context as a {@code boolean}, or the given default
+     * if there is no such value or it has no boolean representation.
+     * <p>
+     * This is a convenience method for the common case of checking whether a user has a permission, which avoids unwrapping
+     * the {@link OptionalBoolean} from the permission value.
+     *
+     * @param node    The permission value
+     * @param user    The user who triggered the permission check
+     * @param context The permission context
+     * @param def     The default value
+     *
+     * @return The boolean permission value for the given parameters, or the default
+     *
+     * @see IPermissionValue#getBoolean(boolean)
+     */
+    public static boolean hasPermission(ResourceLocation node, GameProfile user, PermissionContext context, boolean def) {
+        return handler.getPermissionValue(node, user, context).getBoolean(def);
+    }
+
+    /**
+     * Return {@code true} if the global permission handler may read the value of the given context key, otherwise {@code
+     * false}.
+     *
+     * @param key The context key
+     *
+     * @return {@code true} if the value of the context key may be read, otherwise {@code false}
+     *
+     * @see IPermissionHandler#usesContext(ContextKey)
+     */
+    public static boolean usesContext(ContextKey<?> key) {
+        return handler.usesContext(key);
+    }
+
+    /**
+     * Return {@code true} if the global permission handler may read any value from a permission context, otherwise {@code
+     * false}. If this returns {@code false}, callers may pass {@link PermissionContext#EMPTY} instead of building a context.
+     *
+     * @return {@code true} if any context value may be read, otherwise {@code false}
+     *
+     * @see IPermissionHandler#usesContext()
+     */
+    public static boolean usesContext() {
+        return handler.usesContext();
+    }
+
+    /**
+     * Return the pre-registered handle for the given permission node, registering it if needed.
+     * <p>
+     * Handles should be stored by mods in {@code static final} fields, and used for permission checks on hot paths.
+     *
+     * @param node The permission node, in the form of {@code namespace:path}
+     *
+     * @return The handle for the permission node
+     *
+     * @throws net.minecraft.util.ResourceLocationException If the given node is not a valid resource location
+     * @see PermissionNode#of(ResourceLocation)
+     */
+    public static PermissionNode node(String node) {
+        return PermissionNode.of(new ResourceLocation(node));
+    }
+
+    /**
+     * Return the pre-registered handle for the given permission node, registering it if needed.
+     *
+     * @param node The permission node
+     *
+     * @return The handle for the permission node
+     *
+     * @see PermissionNode#of(ResourceLocation)
+     */
+    public static PermissionNode node(ResourceLocation node) {
+        return PermissionNode.of(node);
+    }
+
     /**
      * Collect all known permissions nodes and returns them in a list.
      * <p>
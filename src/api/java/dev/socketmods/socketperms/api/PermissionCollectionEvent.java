@@ -17,6 +17,9 @@ import javax.annotation.Nullable;
  * <strong>Note: </strong> This event will only hold the known permission nodes that mods willing add to the event. It does not
  * hold <em>all</em> valid permission nodes which are recognized by mods, which can be due to being dynamically recognized
  * permissions.
+ * <p>
+ * All nodes added to this event are {@linkplain PermissionNode registered}, so each known node is assigned a handle ID during
+ * the collection pass.
  *
  * @author SciWhiz12 [SocketMods]
  * @see PermissionAPI#collectKnownNodes(String)
@@ -54,9 +57,19 @@ public class PermissionCollectionEvent extends Event {
      * @param node The permission node to add
      */
     public void addNode(ResourceLocation node) {
+        PermissionNode.of(node);
         permissionNodes.add(node);
     }
 
+    /**
+     * Add the given permission node handle to the list of known permission nodes in this event.
+     *
+     * @param node The permission node handle to add
+     */
+    public void addNode(PermissionNode node) {
+        permissionNodes.add(node.getNode());
+    }
+
     /**
      * Add the given permission node only if the given modid matches the {@linkplain #getModid() filter modid}, or either the
      * filter modid or the given modid is {@code null}.
@@ -66,7 +79,20 @@ public class PermissionCollectionEvent extends Event {
      */
     public void addNodeIfMatching(@Nullable String modid, ResourceLocation node) {
         if (this.modid == null || modid == null || this.modid.equals(modid)) {
-            permissionNodes.add(node);
+            addNode(node);
+        }
+    }
+
+    /**
+     * Add the given permission node handle only if the given modid matches the {@linkplain #getModid() filter modid}, or
+     * either the filter modid or the given modid is {@code null}.
+     *
+     * @param modid The modid, may be {@code null}
+     * @param node  The permission node handle to add
+     */
+    public void addNodeIfMatching(@Nullable String modid, PermissionNode node) {
+        if (this.modid == null || modid == null || this.modid.equals(modid)) {
+            addNode(node);
         }
     }
 
@@ -0,0 +1,154 @@
+package dev.socketmods.socketperms.api;
+
+import com.google.common.base.Preconditions;
+import com.mojang.authlib.GameProfile;
+import dev.socketmods.socketperms.api.context.PermissionContext;
+import net.minecraft.util.ResourceLocation;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+
+/**
+ * A pre-registered handle for a permission node.
+ * <p>
+ * Each permission node has exactly one handle, which is assigned a dense integer ID on registration. IDs start at {@code 0}
+ * and are assigned in order of registration, so permission handlers may use them to index per-node or per-user data by array
+ * slot or bitset instead of hashing the node's {@link ResourceLocation}.
+ * <p>
+ * Handles are obtained through {@link PermissionAPI#node(String)} or {@link #of(ResourceLocation)}, and are intended to be
+ * held by mods in {@code static final} fields and used for permission checks on hot paths:
+ * <pre>{@code
+ * public static final PermissionNode FLY = PermissionAPI.node("examplemod:fly");
+ * // ...
+ * if (FLY.check(player.getGameProfile(), context)) { ... }
+ * }</pre>
+ * <p>
+ * Nodes added to a {@link PermissionCollectionEvent} are registered as part of the collection pass. Handles are never
+ * unregistered, so a handle's ID is stable for the lifetime of the game.
+ * <p>
+ * Handles are interned; two handles are equal if and only if they are the same instance. This class is thread-safe.
+ *
+ * @author SciWhiz12 [SocketMods]
+ * @see PermissionAPI#node(String)
+ */
+public final class PermissionNode {
+    private static final Map<ResourceLocation, PermissionNode> REGISTRY = new ConcurrentHashMap<>();
+    private static int nextId = 0;
+
+    private final ResourceLocation node;
+    private final int id;
+
+    private PermissionNode(ResourceLocation node, int id) {
+        this.node = node;
+        this.id = id;
+    }
+
+    /**
+     * Return the handle for the given permission node, registering it if it has not been registered yet.
+     *
+     * @param node The permission node
+     *
+     * @return The handle for the permission node
+     *
+     * @throws NullPointerException If the given node is {@code null}
+     */
+    public static PermissionNode of(ResourceLocation node) {
+        Preconditions.checkNotNull(node, "Permission node must not be null");
+        final PermissionNode existing = REGISTRY.get(node);
+        if (existing != null) return existing;
+        synchronized (REGISTRY) {
+            return REGISTRY.computeIfAbsent(node, key -> new PermissionNode(key, nextId++));
+        }
+    }
+
+    /**
+     * Return the handle for the given permission node if it is registered, otherwise {@code null}.
+     * <p>
+     * Unlike {@link #of(ResourceLocation)}, this will never register the given node.
+     *
+     * @param node The permission node
+     *
+     * @return The handle for the permission node, or {@code null} if it is not registered
+     */
+    @Nullable
+    public static PermissionNode lookup(ResourceLocation node) {
+        return REGISTRY.get(node);
+    }
+
+    /**
+     * Return the number of registered permission nodes. All registered nodes have an ID less than this number.
+     *
+     * @return The number of registered permission nodes
+     */
+    public static int count() {
+        synchronized (REGISTRY) {
+            return nextId;
+        }
+    }
+
+    /**
+     * Return the permission node of this handle.
+     *
+     * @return The permission node
+     */
+    public ResourceLocation getNode() {
+        return node;
+    }
+
+    /**
+     * Return the dense integer ID of this handle.
+     *
+     * @return The ID of this handle
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Return the permission value for this node, the given user, and the given context from the global permission handler.
+     *
+     * @param user    The user who triggered the permission check
+     * @param context The permission context
+     *
+     * @return The permission value for the given parameters if such a value exists, otherwise an {@link
+     * IPermissionValue#isEmpty() empty permission value}
+     *
+     * @see IPermissionHandler#getPermissionValue(PermissionNode, GameProfile, PermissionContext)
+     */
+    public IPermissionValue getValue(GameProfile user, PermissionContext context) {
+        return PermissionAPI.getHandler().getPermissionValue(this, user, context);
+    }
+
+    /**
+     * Return the permission value for this node, the given user, and the given context as a {@code boolean}, or {@code
+     * false} if there is no such value or it has no boolean representation.
+     *
+     * @param user    The user who triggered the permission check
+     * @param context The permission context
+     *
+     * @return The boolean permission value for the given parameters, or {@code false}
+     */
+    public boolean check(GameProfile user, PermissionContext context) {
+        return getValue(user, context).getBoolean(false);
+    }
+
+    /**
+     * Return the permission value for this node, the given user, and the given context as a {@code boolean}, or the given
+     * default if there is no such value or it has no boolean representation.
+     *
+     * @param user    The user who triggered the permission check
+     * @param context The permission context
+     * @param def     The default value
+     *
+     * @return The boolean permission value for the given parameters, or the default
+     */
+    public boolean check(GameProfile user, PermissionContext context, boolean def) {
+        return getValue(user, context).getBoolean(def);
+    }
+
+    @Override
+    public String toString() {
+        return node.toString();
+    }
+}
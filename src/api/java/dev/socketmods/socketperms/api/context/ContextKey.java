@@ -3,21 +3,38 @@ package dev.socketmods.socketperms.api.context;
 import com.google.common.base.Preconditions;
 import net.minecraft.util.ResourceLocation;
 
-import java.util.Objects;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * A context key for a {@link PermissionContext permission context holder}.
  * <p>
  * A context key has an associated {@link ResourceLocation} as an ID. This may be used by permission handlers to identify
  * specific context keys and values, such as for handling based on dynamic permission rules.
+ * <p>
+ * Each distinct context key (by type class and ID) is assigned a dense {@linkplain #getOrdinal() ordinal} on creation, starting
+ * from {@code 0}. Equal context keys share the same ordinal, so a {@link PermissionContext} may store its values in an array
+ * indexed by ordinal.
  *
  * @param <T> The type of the value for this context key
  *
  * @author SciWhiz12 [SocketMods]
  */
 public class ContextKey<T> {
+    private static final Map<ContextKey<?>, Integer> ORDINALS = new HashMap<>();
+    private static final List<ContextKey<?>> BY_ORDINAL = new ArrayList<>();
+    /**
+     * The number of distinct context keys, written while holding the lock of {@link #ORDINALS} and read without locking, as
+     * it is read whenever a context is built.
+     */
+    private static volatile int count;
+
     private final Class<T> typeClass;
     private final ResourceLocation id;
+    private final int hashCode;
+    private final int ordinal;
 
     /**
      * Constructs a new {@code ContextKey}.
@@ -32,6 +49,44 @@ public class ContextKey<T> {
         Preconditions.checkNotNull(id, "ID must not be null");
         this.typeClass = typeClass;
         this.id = id;
+        this.hashCode = 31 * typeClass.hashCode() + id.hashCode();
+        this.ordinal = assignOrdinal(this);
+    }
+
+    private static int assignOrdinal(ContextKey<?> key) {
+        synchronized (ORDINALS) {
+            final Integer existing = ORDINALS.get(key);
+            if (existing != null) return existing;
+            final int ordinal = BY_ORDINAL.size();
+            ORDINALS.put(key, ordinal);
+            BY_ORDINAL.add(key);
+            count = BY_ORDINAL.size();
+            return ordinal;
+        }
+    }
+
+    /**
+     * Return the number of distinct context keys created. All context keys have an ordinal less than this number.
+     *
+     * @return The number of distinct context keys
+     */
+    public static int count() {
+        return count;
+    }
+
+    /**
+     * Return the first created context key with the given ordinal.
+     *
+     * @param ordinal The ordinal of the context key
+     *
+     * @return The context key with the given ordinal
+     *
+     * @throws IndexOutOfBoundsException If there is no context key with the given ordinal
+     */
+    public static ContextKey<?> byOrdinal(int ordinal) {
+        synchronized (ORDINALS) {
+            return BY_ORDINAL.get(ordinal);
+        }
     }
 
     /**
@@ -52,16 +107,25 @@ public class ContextKey<T> {
         return id;
     }
 
+    /**
+     * Returns the dense ordinal of this context key, which is shared by all equal context keys.
+     *
+     * @return The ordinal of this key
+     */
+    public int getOrdinal() {
+        return ordinal;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         ContextKey<?> that = (ContextKey<?>) o;
-        return typeClass.equals(that.typeClass) && id.equals(that.id);
+        return hashCode == that.hashCode && typeClass.equals(that.typeClass) && id.equals(that.id);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(typeClass, id);
+        return hashCode;
     }
 }
@@ -1,16 +1,15 @@
 package dev.socketmods.socketperms.api.context;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableMap;
 import com.mojang.authlib.GameProfile;
 import dev.socketmods.socketperms.api.IPermissionHandler;
 import net.minecraft.util.ResourceLocation;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.StringJoiner;
+import java.util.function.Supplier;
 import javax.annotation.Nullable;
 
 /**
@@ -20,7 +19,14 @@ import javax.annotation.Nullable;
  * depending on the context/situation surrounding the permission query.
  * <p>
  * A context consists of {@link ContextKey}s to their associated values. A list of standard context keys can be found at {@link
- * StandardContextKeys}.
+ * StandardContextKeys}. Values are stored in a small array indexed by the {@linkplain ContextKey#getOrdinal() ordinal} of
+ * their keys, so reading a value is an array access.
+ * <p>
+ * Values may also be supplied lazily through {@link Builder#addLazy(ContextKey, Supplier)}. A lazy value is only computed when
+ * it is first read (through {@link #has(ContextKey)}, {@link #getNullable(ContextKey)} or {@link #get(ContextKey)}), and the
+ * result is memoized for later reads. A lazy value which is computed as {@code null} is treated as absent. Permission handlers
+ * may declare which keys they read through {@link IPermissionHandler#usesContext(ContextKey)}, so callers can avoid building
+ * values (or whole contexts) which are never read.
  * <p>
  * This class is immutable and thread-safe to access.
  *
@@ -32,12 +38,16 @@ public class PermissionContext {
     /**
      * An empty permissions context holder.
      */
-    public static final PermissionContext EMPTY = new PermissionContext(ImmutableMap.of());
+    public static final PermissionContext EMPTY = new PermissionContext(new Object[0]);
 
-    private final Map<ContextKey<?>, Object> contextValues;
+    /**
+     * The context values, indexed by the {@linkplain ContextKey#getOrdinal() ordinal} of their keys. The array is trimmed to
+     * the highest ordinal with a value, so two contexts with equal values have equal arrays.
+     */
+    private final Object[] contextValues;
 
-    private PermissionContext(Map<ContextKey<?>, Object> contextValues) {
-        this.contextValues = ImmutableMap.copyOf(contextValues);
+    private PermissionContext(Object[] contextValues) {
+        this.contextValues = contextValues;
     }
 
     /**
@@ -48,7 +58,7 @@ public class PermissionContext {
      * @return {@code true} if there is a value for the given key, otherwise {@code false}
      */
     public boolean has(ContextKey<?> key) {
-        return contextValues.containsKey(key);
+        return getNullable(key) != null;
     }
 
     /**
@@ -62,7 +72,13 @@ public class PermissionContext {
     @SuppressWarnings("unchecked")
     @Nullable
     public <T> T getNullable(ContextKey<T> key) {
-        return (T) contextValues.get(key);
+        final int ordinal = key.getOrdinal();
+        return ordinal < contextValues.length ? (T) unwrap(contextValues[ordinal]) : null;
+    }
+
+    @Nullable
+    private static Object unwrap(@Nullable Object value) {
+        return value instanceof LazyValue ? ((LazyValue) value).get() : value;
     }
 
     /**
@@ -80,24 +96,49 @@ public class PermissionContext {
         return Optional.ofNullable(getNullable(key));
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * @implNote This computes all lazy values in both contexts.
+     */
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         PermissionContext that = (PermissionContext) o;
-        return contextValues.equals(that.contextValues);
+        final int length = Math.max(contextValues.length, that.contextValues.length);
+        for (int ordinal = 0; ordinal < length; ordinal++) {
+            final Object value = ordinal < contextValues.length ? unwrap(contextValues[ordinal]) : null;
+            final Object thatValue = ordinal < that.contextValues.length ? unwrap(that.contextValues[ordinal]) : null;
+            if (!Objects.equals(value, thatValue)) return false;
+        }
+        return true;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * @implNote This computes all lazy values in this context.
+     */
     @Override
     public int hashCode() {
-        return Objects.hash(contextValues);
+        int hash = 1;
+        for (int ordinal = 0; ordinal < contextValues.length; ordinal++) {
+            final Object value = unwrap(contextValues[ordinal]);
+            // Skip absent values, as a lazy value computed as null is equal to no value at all
+            if (value != null) hash = 31 * hash + (31 * ordinal + value.hashCode());
+        }
+        return hash;
     }
 
     @Override
     public String toString() {
         final StringJoiner joiner = new StringJoiner(", ", "PermissionContext[", "]");
-        for (Map.Entry<ContextKey<?>, Object> entry : contextValues.entrySet()) {
-            joiner.add(entry.getKey().getId().toString() + "=" + entry.getValue());
+        for (int ordinal = 0; ordinal < contextValues.length; ordinal++) {
+            final Object value = contextValues[ordinal];
+            if (value != null) {
+                joiner.add(ContextKey.byOrdinal(ordinal).getId().toString() + "=" + value);
+            }
         }
         return joiner.toString();
     }
@@ -114,6 +155,10 @@ public class PermissionContext {
     /**
      * A builder for the permissions context object.
      * <p>
+     * A builder may be reused: {@link #build()} copies the values out of the builder, and {@link #clear()} resets the builder
+     * for building another context. Callers which build contexts on hot paths may keep a builder (such as per thread) and
+     * clear it before each use, so that building a context only allocates the context itself.
+     * <p>
      * <strong>Note:</strong> This builder is <em>not</em> thread-safe, but the resulting {@code PermissionContext} object is
      * immutable
      * and thread-safe.
@@ -122,10 +167,11 @@ public class PermissionContext {
      * @see PermissionContext
      */
     public static class Builder {
-        private final Map<ContextKey<?>, Object> contextValues;
+        private Object[] contextValues;
+        private int length = 0;
 
         Builder() {
-            contextValues = new HashMap<>();
+            contextValues = new Object[ContextKey.count()];
         }
 
         /**
@@ -144,7 +190,7 @@ public class PermissionContext {
         public <T> Builder add(ContextKey<T> key, T value) {
             Preconditions.checkNotNull(key, "Context key must not be null");
             Preconditions.checkNotNull(value, "Context value must not be null");
-            contextValues.put(key, value);
+            put(key.getOrdinal(), value);
             return this;
         }
 
@@ -165,21 +211,98 @@ public class PermissionContext {
         public <T> Builder addNullable(ContextKey<T> key, @Nullable T value) {
             Preconditions.checkNotNull(key, "Context key must not be null");
             if (value != null) {
-                contextValues.put(key, value);
+                put(key.getOrdinal(), value);
             }
             return this;
         }
 
+        private void put(int ordinal, Object value) {
+            if (ordinal >= contextValues.length) {
+                contextValues = Arrays.copyOf(contextValues, Math.max(ordinal + 1, ContextKey.count()));
+            }
+            contextValues[ordinal] = value;
+            length = Math.max(length, ordinal + 1);
+        }
+
+        /**
+         * Add the given {@linkplain ContextKey context key} and a supplier of its value to this context builder.
+         * <p>
+         * The supplier is only called when the value is first read from the built context, and its result is memoized. If
+         * the supplier returns {@code null}, the context will have no value for the given key. The supplier may be called
+         * from any thread which reads the context, but will be called at most once per built context.
+         * <p>
+         * If there is a previous value associated with the given context key, it will be replaced.
+         *
+         * @param key      The context key
+         * @param supplier The supplier of the context value
+         * @param <T>      The type of the context key and value
+         *
+         * @return This builder instance, for chaining
+         *
+         * @throws NullPointerException if either of the given context key and the given supplier is null
+         */
+        public <T> Builder addLazy(ContextKey<T> key, Supplier<? extends T> supplier) {
+            Preconditions.checkNotNull(key, "Context key must not be null");
+            Preconditions.checkNotNull(supplier, "Context value supplier must not be null");
+            put(key.getOrdinal(), new LazyValue(supplier));
+            return this;
+        }
+
+        /**
+         * Remove all values from this builder, so it may be reused to build another context.
+         *
+         * @return This builder instance, for chaining
+         */
+        public Builder clear() {
+            Arrays.fill(contextValues, 0, length, null);
+            length = 0;
+            return this;
+        }
+
         /**
          * Build the {@link PermissionContext} object from the values in this builder.
          * <p>
-         * If this builder is empty, then this will return {@link PermissionContext#EMPTY}.
+         * If this builder is empty, then this will return {@link PermissionContext#EMPTY}. The values are copied out of this
+         * builder, so further changes to this builder do not affect the built context.
          *
          * @return The built permission context object
          */
         public PermissionContext build() {
-            if (contextValues.isEmpty()) return PermissionContext.EMPTY;
-            return new PermissionContext(contextValues);
+            if (length == 0) return PermissionContext.EMPTY;
+            return new PermissionContext(Arrays.copyOf(contextValues, length));
+        }
+    }
+
+    /**
+     * A lazily computed and memoized context value.
+     */
+    private static final class LazyValue {
+        @Nullable
+        private volatile Supplier<?> supplier;
+        @Nullable
+        private Object value;
+
+        LazyValue(Supplier<?> supplier) {
+            this.supplier = supplier;
+        }
+
+        @Nullable
+        Object get() {
+            if (supplier != null) {
+                synchronized (this) {
+                    final Supplier<?> supplier = this.supplier;
+                    if (supplier != null) {
+                        value = supplier.get();
+                        this.supplier = null; // Publishes the value through the volatile write
+                    }
+                }
+            }
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return supplier != null ? "<lazy>" : String.valueOf(value);
         }
     }
 }
@@ -0,0 +1,58 @@
+package dev.socketmods.socketperms.benchmark;
+
+import dev.socketmods.socketperms.api.context.ContextKey;
+import dev.socketmods.socketperms.api.context.PermissionContext;
+import dev.socketmods.socketperms.api.context.StandardContextKeys;
+import net.minecraft.util.Direction;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.vector.Vector3d;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of building a {@link PermissionContext} from the {@link StandardContextKeys}, and of hashing a
+ * {@link ContextKey}.
+ * <p>
+ * Only the keys whose values can be created outside of a running game are used: the positions and the block face.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContextBenchmark {
+    @Param({"0", "2", "4"})
+    public int contextSize;
+
+    public Vector3d thisPosition = new Vector3d(1.5D, 64.0D, -3.5D);
+    public Vector3d targetPosition = new Vector3d(2.5D, 65.0D, -3.5D);
+    public BlockPos targetBlockPos = new BlockPos(2, 65, -4);
+    public Direction targetBlockFace = Direction.UP;
+    public ContextKey<?> key = StandardContextKeys.TARGET_BLOCK_POS;
+
+    @Benchmark
+    public PermissionContext build() {
+        final PermissionContext.Builder builder = PermissionContext.builder();
+        if (contextSize > 0) builder.add(StandardContextKeys.THIS_POSITION, thisPosition);
+        if (contextSize > 1) builder.add(StandardContextKeys.TARGET_BLOCK_POS, targetBlockPos);
+        if (contextSize > 2) builder.add(StandardContextKeys.TARGET_POSITION, targetPosition);
+        if (contextSize > 3) builder.add(StandardContextKeys.TARGET_BLOCK_FACE, targetBlockFace);
+        return builder.build();
+    }
+
+    @Benchmark
+    public int keyHashCode() {
+        return key.hashCode();
+    }
+}
@@ -0,0 +1,84 @@
+package dev.socketmods.socketperms.benchmark;
+
+import dev.socketmods.socketperms.api.PermissionAPI;
+import dev.socketmods.socketperms.api.PermissionCollectionEvent;
+import dev.socketmods.socketperms.api.PermissionNode;
+import net.minecraft.util.ResourceLocation;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of a collection pass through {@link PermissionAPI#collectKnownNodes(String)}, with a listener adding a number
+ * of pre-registered nodes.
+ * <p>
+ * Outside of a running game, the event bus is not started by the mod loader, and would drop every event posted to it;
+ * it is started here so that the listener is called.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KnownNodesBenchmark {
+    @Param({"100", "5000"})
+    public int nodes;
+
+    private Listener listener;
+
+    @Setup
+    public void setup() {
+        final PermissionNode[] handles = new PermissionNode[nodes];
+        for (int i = 0; i < nodes; i++) {
+            handles[i] = PermissionNode.of(new ResourceLocation("bench", "node" + i));
+        }
+        listener = new Listener(handles);
+        MinecraftForge.EVENT_BUS.register(listener);
+        MinecraftForge.EVENT_BUS.start();
+
+        final int collected = PermissionAPI.collectKnownNodes(null).size();
+        if (collected != nodes) {
+            throw new IllegalStateException("Collected " + collected + " nodes instead of " + nodes);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        MinecraftForge.EVENT_BUS.unregister(listener);
+    }
+
+    @Benchmark
+    public List<ResourceLocation> collectKnownNodes() {
+        return PermissionAPI.collectKnownNodes(null);
+    }
+
+    public static final class Listener {
+        private final PermissionNode[] handles;
+
+        Listener(PermissionNode[] handles) {
+            this.handles = handles;
+        }
+
+        @SubscribeEvent
+        public void onPermissionCollection(PermissionCollectionEvent event) {
+            for (PermissionNode handle : handles) {
+                event.addNode(handle);
+            }
+        }
+    }
+}
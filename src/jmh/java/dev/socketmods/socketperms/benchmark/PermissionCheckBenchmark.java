@@ -0,0 +1,153 @@
+package dev.socketmods.socketperms.benchmark;
+
+import com.electronwill.nightconfig.core.CommentedConfig;
+import com.electronwill.nightconfig.toml.TomlFormat;
+import com.mojang.authlib.GameProfile;
+import dev.socketmods.socketperms.NodeIndex;
+import dev.socketmods.socketperms.PermissionSnapshot;
+import dev.socketmods.socketperms.SocketPermissionHandler;
+import dev.socketmods.socketperms.api.IPermissionValue;
+import dev.socketmods.socketperms.api.PermissionNode;
+import dev.socketmods.socketperms.api.context.PermissionContext;
+import dev.socketmods.socketperms.api.context.StandardContextKeys;
+import dev.socketmods.socketperms.groups.PermissionUser;
+import dev.socketmods.socketperms.groups.UserDirectory;
+import net.minecraft.util.Direction;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.vector.Vector3d;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of a permission check through {@link SocketPermissionHandler#getPermissionValue}, over a generated set of users
+ * who each override a number of nodes on top of a group.
+ * <p>
+ * Each invocation checks for the next user in turn. The numbers of users stay within the capacity of the per-user cache,
+ * so that after warmup every check is served from the cache rather than thrashing it.
+ * <p>
+ * The checked nodes may each have a number of rules on the target block face, none of which match the context, so that the
+ * rules are evaluated on every check before falling through to the cached value. The context holds the first {@code
+ * contextSize} of the positions and the {@code up} block face, as in {@link ContextBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PermissionCheckBenchmark {
+    private static final String NAMESPACE = "bench";
+    private static final String GROUP = "member";
+    /**
+     * The faces of the rules of each node, which are all but the face in the context.
+     */
+    private static final String[] RULE_FACES = {"down", "north", "south", "west"};
+
+    @Param({"16", "256"})
+    public int nodesPerUser;
+
+    @Param({"100", "500"})
+    public int users;
+
+    @Param({"0", "2", "4"})
+    public int contextSize;
+
+    @Param({"0", "4"})
+    public int rules;
+
+    private SocketPermissionHandler handler;
+    private GameProfile[] profiles;
+    private PermissionNode[] userNodes;
+    private PermissionNode missNode;
+    private ResourceLocation unknownNode;
+    private PermissionContext context;
+    private int next;
+
+    @Setup
+    public void setup() {
+        userNodes = new PermissionNode[nodesPerUser];
+        final NodeIndex.Builder overrides = NodeIndex.builder();
+        for (int i = 0; i < nodesPerUser; i++) {
+            userNodes[i] = PermissionNode.of(new ResourceLocation(NAMESPACE, "user.node" + i));
+            overrides.put(NAMESPACE, "user.node" + i, SocketPermissionHandler.wrapValue(i % 2 == 0));
+        }
+        final NodeIndex userPermissions = overrides.build();
+        missNode = PermissionNode.of(new ResourceLocation(NAMESPACE, "missing"));
+        unknownNode = new ResourceLocation("unknown", "node");
+
+        final CommentedConfig config = TomlFormat.newConfig();
+        config.set(Arrays.asList(NAMESPACE, "global"), true);
+        config.set(Arrays.asList("groups", GROUP, "permissions", NAMESPACE, "group"), 5L);
+        final List<CommentedConfig> ruleTables = new ArrayList<>();
+        for (int i = 0; i <= nodesPerUser; i++) {
+            final String node = i < nodesPerUser ? userNodes[i].getNode().toString() : missNode.getNode().toString();
+            for (int j = 0; j < rules; j++) {
+                final CommentedConfig rule = config.createSubConfig();
+                rule.set("node", node);
+                rule.set("value", false);
+                rule.set("face", RULE_FACES[j % RULE_FACES.length]);
+                ruleTables.add(rule);
+            }
+        }
+        if (!ruleTables.isEmpty()) config.set(Collections.singletonList("rules"), ruleTables);
+
+        final PermissionContext.Builder contextBuilder = PermissionContext.builder();
+        if (contextSize > 0) contextBuilder.add(StandardContextKeys.THIS_POSITION, new Vector3d(1.5D, 64.0D, -3.5D));
+        if (contextSize > 1) contextBuilder.add(StandardContextKeys.TARGET_BLOCK_POS, new BlockPos(2, 65, -4));
+        if (contextSize > 2) contextBuilder.add(StandardContextKeys.TARGET_POSITION, new Vector3d(2.5D, 65.0D, -3.5D));
+        if (contextSize > 3) contextBuilder.add(StandardContextKeys.TARGET_BLOCK_FACE, Direction.UP);
+        context = contextBuilder.build();
+
+        final Random random = new Random(0L);
+        final List<PermissionUser> userList = new ArrayList<>(users);
+        profiles = new GameProfile[users];
+        for (int i = 0; i < users; i++) {
+            final UUID id = new UUID(random.nextLong(), random.nextLong());
+            userList.add(new PermissionUser(id, Collections.singletonList(GROUP), userPermissions));
+            profiles[i] = new GameProfile(id, "user" + i);
+        }
+
+        handler = new SocketPermissionHandler();
+        handler.apply(config, PermissionSnapshot.compile(config, UserDirectory.of(userList), 0L));
+    }
+
+    private GameProfile nextProfile() {
+        final GameProfile profile = profiles[next];
+        next = next + 1 == profiles.length ? 0 : next + 1;
+        return profile;
+    }
+
+    @Benchmark
+    public IPermissionValue hit() {
+        final GameProfile profile = nextProfile();
+        return handler.getPermissionValue(userNodes[next % userNodes.length], profile, context);
+    }
+
+    @Benchmark
+    public IPermissionValue miss() {
+        return handler.getPermissionValue(missNode, nextProfile(), context);
+    }
+
+    @Benchmark
+    public IPermissionValue unknownNamespace() {
+        return handler.getPermissionValue(unknownNode, nextProfile(), context);
+    }
+}
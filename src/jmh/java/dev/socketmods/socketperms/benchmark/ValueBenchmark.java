@@ -0,0 +1,58 @@
+package dev.socketmods.socketperms.benchmark;
+
+import dev.socketmods.socketperms.SocketPermissionHandler;
+import dev.socketmods.socketperms.api.IPermissionValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of {@link SocketPermissionHandler#wrapValue(Object)} for each kind of config value.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValueBenchmark {
+    // Non-final, so that the values are not constant-folded
+    public Object booleanValue = Boolean.TRUE;
+    public Object longValue = 42L;
+    public Object integerValue = 42;
+    public Object doubleValue = 0.5D;
+    public Object stringValue = "value";
+
+    @Benchmark
+    public IPermissionValue wrapBoolean() {
+        return SocketPermissionHandler.wrapValue(booleanValue);
+    }
+
+    @Benchmark
+    public IPermissionValue wrapLong() {
+        return SocketPermissionHandler.wrapValue(longValue);
+    }
+
+    @Benchmark
+    public IPermissionValue wrapInteger() {
+        return SocketPermissionHandler.wrapValue(integerValue);
+    }
+
+    @Benchmark
+    public IPermissionValue wrapDouble() {
+        return SocketPermissionHandler.wrapValue(doubleValue);
+    }
+
+    @Benchmark
+    public IPermissionValue wrapOther() {
+        return SocketPermissionHandler.wrapValue(stringValue);
+    }
+}
@@ -0,0 +1,663 @@
+package dev.socketmods.socketperms;
+
+import com.electronwill.nightconfig.core.CommentedConfig;
+import com.electronwill.nightconfig.core.Config;
+import com.electronwill.nightconfig.core.UnmodifiableConfig;
+import com.electronwill.nightconfig.toml.TomlFormat;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import dev.socketmods.socketperms.api.IPermissionValue;
+import dev.socketmods.socketperms.groups.PermissionUser;
+import dev.socketmods.socketperms.groups.UserDirectory;
+import dev.socketmods.socketperms.groups.UserSource;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+
+/**
+ * A compiled, versioned binary snapshot of the permissions file, which loads much faster than parsing the TOML source.
+ * <p>
+ * The snapshot holds a dictionary of all strings (keys, node names and group names), the permissions config without its
+ * users section as a tree of typed values, and the users as a directory sorted by UUID pointing into per-user records.
+ * Dictionary references, counts and integers are encoded as varints. It also records the SHA-256 hash of the contents of
+ * the source file it was written from, so that a stale snapshot can be detected even if the file was edited without
+ * changing its size or modification time.
+ * <p>
+ * The snapshot is memory-mapped when read. The dictionary and config are decoded eagerly, as they are small; the users are
+ * not materialized, but are looked up by binary search over the mapped directory and decoded on demand.
+ * <p>
+ * As a mapped file cannot be replaced or deleted on some platforms while it is mapped, each snapshot is written as a new
+ * generation beside the base path, named with the base file name followed by a generation number, and the latest
+ * generation is the one read. Older generations are deleted once they can be, on a later write if not right away.
+ * <p>
+ * The layout is, with all fixed-width numbers in big-endian order:
+ * <pre>
+ * int     magic, format version
+ * byte[]  SHA-256 hash of the source file contents (32 bytes)
+ * varint  dictionary size, then per string: varint length, UTF-8 bytes
+ * value   config (a table)
+ * varint  group list count, then per list: varint size, varint dictionary IDs
+ * int     user count, then per user (sorted by UUID): long most and least significant bits, int record offset
+ * record  per user: varint group list index + 1 (0 for none), varint entry count, then per entry: varint dictionary ID of
+ *         the node, value
+ * </pre>
+ * A value is a tag byte followed by its payload: nothing for booleans, a zigzag varint for integers, 8 bytes for doubles,
+ * a varint dictionary ID for strings, and a varint count followed by the entries (varint key dictionary ID and value) or
+ * elements for tables and lists.
+ */
+public final class BinarySnapshot {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final int MAGIC = 0x5350524D; // "SPRM"
+    /**
+     * The version of the binary format. Snapshots of any other version are ignored.
+     */
+    public static final int FORMAT_VERSION = 2;
+    private static final int DIRECTORY_ENTRY_SIZE = 20;
+    private static final int HASH_SIZE = 32;
+
+    private static final byte TAG_FALSE = 0;
+    private static final byte TAG_TRUE = 1;
+    private static final byte TAG_LONG = 2;
+    private static final byte TAG_DOUBLE = 3;
+    private static final byte TAG_STRING = 4;
+    private static final byte TAG_TABLE = 5;
+    private static final byte TAG_LIST = 6;
+
+    private final CommentedConfig config;
+    private final UserDirectory users;
+    private final byte[] sourceHash;
+
+    private BinarySnapshot(CommentedConfig config, UserDirectory users, byte[] sourceHash) {
+        this.config = config;
+        this.users = users;
+        this.sourceHash = sourceHash;
+    }
+
+    /**
+     * Return the permissions config, without its users section.
+     *
+     * @return The permissions config
+     */
+    public CommentedConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Return the users, which are decoded from the mapped snapshot on demand.
+     *
+     * @return The users
+     */
+    public UserDirectory getUsers() {
+        return users;
+    }
+
+    /**
+     * Return {@code true} if this snapshot was written from a source file with the given contents, otherwise {@code false}.
+     *
+     * @param sourceHash The {@linkplain #hash(byte[]) hash} of the contents of the source file
+     *
+     * @return {@code true} if this snapshot is current with the source file, otherwise {@code false}
+     */
+    public boolean isCurrent(byte[] sourceHash) {
+        return Arrays.equals(this.sourceHash, sourceHash);
+    }
+
+    /**
+     * Return the SHA-256 hash of the given source file contents, as recorded in a snapshot.
+     *
+     * @param contents The contents of the source file
+     *
+     * @return The hash of the contents
+     */
+    public static byte[] hash(byte[] contents) {
+        return Hashing.sha256().hashBytes(contents).asBytes();
+    }
+
+    /**
+     * Read and map the latest generation of the binary snapshot at the given base path, or return {@code null} if there is
+     * no snapshot at the path or it is of another format version.
+     * <p>
+     * The header, dictionary and config are decoded, and the user directory is checked to be sorted and to point within
+     * the file, so that a truncated or corrupt snapshot is rejected here rather than when a user is looked up.
+     *
+     * @param path The base path of the snapshot
+     *
+     * @return The snapshot, or {@code null} if there is no readable snapshot
+     *
+     * @throws IOException           If the snapshot could not be read
+     * @throws IllegalStateException If the snapshot is truncated or corrupt
+     */
+    @Nullable
+    public static BinarySnapshot read(Path path) throws IOException {
+        final List<Long> generations = listGenerations(path);
+        if (generations.isEmpty()) return null;
+        final Path latest = generationPath(path, generations.get(generations.size() - 1));
+        try {
+            return readGeneration(latest);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalStateException("Truncated or corrupt binary permissions snapshot " + latest, e);
+        }
+    }
+
+    @Nullable
+    private static BinarySnapshot readGeneration(Path path) throws IOException {
+        final ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.remaining() < 8 || buffer.getInt(0) != MAGIC) {
+            LOGGER.warn("Ignoring binary permissions snapshot {} which is not a snapshot", path);
+            return null;
+        }
+        if (buffer.getInt(4) != FORMAT_VERSION) {
+            LOGGER.info("Ignoring binary permissions snapshot {} of format version {}", path, buffer.getInt(4));
+            return null;
+        }
+        if (buffer.limit() < 8 + HASH_SIZE) throw new IllegalStateException("Truncated snapshot header in " + path);
+        final byte[] sourceHash = new byte[HASH_SIZE];
+        for (int i = 0; i < HASH_SIZE; i++) {
+            sourceHash[i] = buffer.get(8 + i);
+        }
+        final Decoder decoder = new Decoder(buffer, 8 + HASH_SIZE, null);
+
+        final String[] dictionary = new String[decoder.readCount()];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = decoder.readUtf();
+        }
+        decoder.dictionary = dictionary;
+
+        final CommentedConfig config = TomlFormat.newConfig();
+        decoder.expectTag(TAG_TABLE);
+        decoder.readTable(config);
+
+        final int groupListCount = decoder.readCount();
+        final List<List<String>> groupLists = new ArrayList<>(groupListCount);
+        for (int i = 0; i < groupListCount; i++) {
+            final int size = decoder.readCount();
+            final ImmutableList.Builder<String> groups = ImmutableList.builder();
+            for (int j = 0; j < size; j++) {
+                groups.add(dictionary[decoder.readVarInt()]);
+            }
+            groupLists.add(groups.build());
+        }
+
+        final int userCount = decoder.readInt();
+        final int directoryStart = decoder.position;
+        if (userCount < 0 || directoryStart + (long) userCount * DIRECTORY_ENTRY_SIZE > buffer.limit()) {
+            throw new IllegalStateException("Truncated user directory of " + userCount + " users in " + path);
+        }
+        final int recordsStart = directoryStart + userCount * DIRECTORY_ENTRY_SIZE;
+        checkDirectory(buffer, directoryStart, userCount, buffer.limit() - recordsStart);
+        final MappedUserSource source = new MappedUserSource(buffer, dictionary, groupLists, directoryStart, userCount,
+            recordsStart);
+        return new BinarySnapshot(config, UserDirectory.of(source), sourceHash);
+    }
+
+    /**
+     * Check that the entries of the user directory are sorted by UUID, without duplicates, and that their record offsets
+     * are ascending and within the records.
+     */
+    private static void checkDirectory(ByteBuffer buffer, int directoryStart, int count, int recordsLength) {
+        int previousOffset = -1;
+        for (int i = 0; i < count; i++) {
+            final int entry = directoryStart + i * DIRECTORY_ENTRY_SIZE;
+            final int offset = buffer.getInt(entry + 16);
+            if (offset <= previousOffset || offset >= recordsLength) {
+                throw new IllegalStateException("User record offset " + offset + " out of bounds at entry " + i);
+            }
+            if (i > 0) {
+                final int previous = entry - DIRECTORY_ENTRY_SIZE;
+                int cmp = Long.compare(buffer.getLong(previous), buffer.getLong(entry));
+                if (cmp == 0) cmp = Long.compare(buffer.getLong(previous + 8), buffer.getLong(entry + 8));
+                if (cmp >= 0) throw new IllegalStateException("User directory not sorted at entry " + i);
+            }
+            previousOffset = offset;
+        }
+    }
+
+    /**
+     * Write a binary snapshot of the given config and users as a new generation at the given base path, through a
+     * temporary file which is moved into place, then delete the older generations which are no longer mapped.
+     *
+     * @param path       The base path of the snapshot
+     * @param config     The permissions config; its users section is not written
+     * @param users      The users
+     * @param sourceHash The {@linkplain #hash(byte[]) hash} of the contents of the source file
+     *
+     * @throws IOException If the snapshot could not be written
+     */
+    public static void write(Path path, UnmodifiableConfig config, UserDirectory users, byte[] sourceHash)
+        throws IOException {
+        Preconditions.checkArgument(sourceHash.length == HASH_SIZE, "Source hash must be %s bytes", HASH_SIZE);
+        final Encoder encoder = new Encoder();
+
+        final ByteArrayOutputStream configBytes = new ByteArrayOutputStream();
+        final Map<String, Object> sections = new LinkedHashMap<>(config.valueMap());
+        sections.remove(SocketPermissionHandler.USERS_SECTION);
+        encoder.writeTable(new DataOutputStream(configBytes), sections);
+
+        final List<PermissionUser> sortedUsers = new ArrayList<>(users.size());
+        users.forEach(sortedUsers::add);
+        sortedUsers.sort((a, b) -> a.getId().compareTo(b.getId()));
+
+        final Map<List<String>, Integer> groupLists = new LinkedHashMap<>();
+        final ByteArrayOutputStream directoryBytes = new ByteArrayOutputStream(sortedUsers.size() * DIRECTORY_ENTRY_SIZE);
+        final DataOutputStream directory = new DataOutputStream(directoryBytes);
+        final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        final DataOutputStream records = new DataOutputStream(recordBytes);
+        for (PermissionUser user : sortedUsers) {
+            directory.writeLong(user.getId().getMostSignificantBits());
+            directory.writeLong(user.getId().getLeastSignificantBits());
+            directory.writeInt(records.size());
+
+            final List<String> groups = user.getGroups();
+            writeVarInt(records, groups.isEmpty() ? 0 : groupLists.computeIfAbsent(groups, k -> groupLists.size()) + 1);
+            final List<Map.Entry<String, IPermissionValue>> entries = new ArrayList<>();
+            user.getPermissions().forEachEntry((node, value) ->
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(node, value)));
+            writeVarInt(records, entries.size());
+            for (Map.Entry<String, IPermissionValue> entry : entries) {
+                writeVarInt(records, encoder.id(entry.getKey()));
+                encoder.writeValue(records, SocketPermissionHandler.unwrapValue(entry.getValue()));
+            }
+        }
+
+        final ByteArrayOutputStream groupListBytes = new ByteArrayOutputStream();
+        final DataOutputStream groupListOut = new DataOutputStream(groupListBytes);
+        writeVarInt(groupListOut, groupLists.size());
+        for (List<String> groups : groupLists.keySet()) {
+            writeVarInt(groupListOut, groups.size());
+            for (String group : groups) {
+                writeVarInt(groupListOut, encoder.id(group));
+            }
+        }
+
+        Files.createDirectories(path.getParent());
+        final Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (OutputStream stream = Files.newOutputStream(temp)) {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.write(sourceHash);
+            writeVarInt(out, encoder.dictionary.size());
+            for (String string : encoder.dictionary.keySet()) {
+                final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                writeVarInt(out, bytes.length);
+                out.write(bytes);
+            }
+            configBytes.writeTo(out);
+            groupListBytes.writeTo(out);
+            out.writeInt(sortedUsers.size());
+            directoryBytes.writeTo(out);
+            recordBytes.writeTo(out);
+            out.flush();
+        }
+        final List<Long> generations = listGenerations(path);
+        final long generation = generations.isEmpty() ? 0L : generations.get(generations.size() - 1) + 1;
+        Files.move(temp, generationPath(path, generation), StandardCopyOption.ATOMIC_MOVE);
+
+        for (long old : generations) {
+            deleteIfUnmapped(generationPath(path, old));
+        }
+        // A snapshot of an earlier format version, which was written to the base path itself
+        deleteIfUnmapped(path);
+    }
+
+    private static void deleteIfUnmapped(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // Still mapped by a live snapshot on this platform; deleted by a later write instead
+            LOGGER.debug("Could not delete old binary permissions snapshot {} yet", path, e);
+        }
+    }
+
+    private static Path generationPath(Path path, long generation) {
+        return path.resolveSibling(path.getFileName() + "." + generation);
+    }
+
+    /**
+     * List the generations of the snapshot at the given base path which exist, in ascending order.
+     */
+    private static List<Long> listGenerations(Path path) throws IOException {
+        final Path directory = path.toAbsolutePath().getParent();
+        if (!Files.isDirectory(directory)) return Collections.emptyList();
+        final String prefix = path.getFileName() + ".";
+        final List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+            file -> file.getFileName().toString().startsWith(prefix))) {
+            for (Path file : files) {
+                final String suffix = file.getFileName().toString().substring(prefix.length());
+                if (!suffix.isEmpty() && suffix.chars().allMatch(c -> c >= '0' && c <= '9')) {
+                    generations.add(Long.parseLong(suffix));
+                }
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Encodes values, collecting the strings they reference into the dictionary.
+     */
+    private static final class Encoder {
+        final Map<String, Integer> dictionary = new LinkedHashMap<>();
+
+        int id(String string) {
+            return dictionary.computeIfAbsent(string, k -> dictionary.size());
+        }
+
+        void writeTable(DataOutputStream out, Map<String, Object> entries) throws IOException {
+            final Map<String, Object> supported = new LinkedHashMap<>();
+            entries.forEach((key, value) -> {
+                if (isSupported(value)) {
+                    supported.put(key, value);
+                } else {
+                    LOGGER.warn("Skipping unsupported config value {} of type {} in binary snapshot", key,
+                        value.getClass().getName());
+                }
+            });
+            out.writeByte(TAG_TABLE);
+            writeVarInt(out, supported.size());
+            for (Map.Entry<String, Object> entry : supported.entrySet()) {
+                writeVarInt(out, id(entry.getKey()));
+                writeValue(out, entry.getValue());
+            }
+        }
+
+        void writeValue(DataOutputStream out, Object value) throws IOException {
+            if (value instanceof Boolean) {
+                out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+            } else if (value instanceof Double || value instanceof Float) {
+                out.writeByte(TAG_DOUBLE);
+                out.writeDouble(((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                out.writeByte(TAG_LONG);
+                final long number = ((Number) value).longValue();
+                writeVarLong(out, (number << 1) ^ (number >> 63));
+            } else if (value instanceof String) {
+                out.writeByte(TAG_STRING);
+                writeVarInt(out, id((String) value));
+            } else if (value instanceof UnmodifiableConfig) {
+                writeTable(out, ((UnmodifiableConfig) value).valueMap());
+            } else {
+                final List<Object> supported = new ArrayList<>();
+                for (Object element : (List<?>) value) {
+                    if (isSupported(element)) supported.add(element);
+                }
+                out.writeByte(TAG_LIST);
+                writeVarInt(out, supported.size());
+                for (Object element : supported) {
+                    writeValue(out, element);
+                }
+            }
+        }
+
+        private static boolean isSupported(@Nullable Object value) {
+            return value instanceof Boolean || value instanceof Number || value instanceof String
+                || value instanceof UnmodifiableConfig || value instanceof List;
+        }
+    }
+
+    /**
+     * Decodes values from a buffer by absolute position, so that several decoders can share the buffer across threads.
+     */
+    private static final class Decoder {
+        final ByteBuffer buffer;
+        int position;
+        String[] dictionary;
+
+        Decoder(ByteBuffer buffer, int position, @Nullable String[] dictionary) {
+            this.buffer = buffer;
+            this.position = position;
+            this.dictionary = dictionary;
+        }
+
+        int readInt() {
+            final int value = buffer.getInt(position);
+            position += 4;
+            return value;
+        }
+
+        long readLong() {
+            final long value = buffer.getLong(position);
+            position += 8;
+            return value;
+        }
+
+        int readVarInt() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                final byte b = buffer.get(position++);
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) return value;
+                if (shift >= 28) throw new IllegalStateException("Varint too long at " + position);
+            }
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                final byte b = buffer.get(position++);
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return value;
+                if (shift >= 63) throw new IllegalStateException("Varlong too long at " + position);
+            }
+        }
+
+        /**
+         * Read a varint count of the elements which follow, each of which takes at least one byte, so that a corrupt count
+         * fails here instead of allocating for it.
+         */
+        int readCount() {
+            final int count = readVarInt();
+            if (count < 0 || count > buffer.limit() - position) {
+                throw new IllegalStateException("Count " + count + " out of bounds at " + position);
+            }
+            return count;
+        }
+
+        String readUtf() {
+            final byte[] bytes = new byte[readCount()];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(position++);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        void expectTag(byte tag) {
+            final byte actual = buffer.get(position++);
+            if (actual != tag) throw new IllegalStateException("Expected tag " + tag + " but found " + actual);
+        }
+
+        void readTable(Config config) {
+            final int size = readCount();
+            for (int i = 0; i < size; i++) {
+                final String key = dictionary[readVarInt()];
+                config.set(Collections.singletonList(key), readValue(config));
+            }
+        }
+
+        Object readValue(Config parent) {
+            final byte tag = buffer.get(position++);
+            switch (tag) {
+                case TAG_FALSE:
+                    return Boolean.FALSE;
+                case TAG_TRUE:
+                    return Boolean.TRUE;
+                case TAG_LONG: {
+                    final long zigzag = readVarLong();
+                    return (zigzag >>> 1) ^ -(zigzag & 1);
+                }
+                case TAG_DOUBLE: {
+                    final double value = buffer.getDouble(position);
+                    position += 8;
+                    return value;
+                }
+                case TAG_STRING:
+                    return dictionary[readVarInt()];
+                case TAG_TABLE: {
+                    final Config table = parent.createSubConfig();
+                    readTable(table);
+                    return table;
+                }
+                case TAG_LIST: {
+                    final int size = readCount();
+                    final List<Object> list = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        list.add(readValue(parent));
+                    }
+                    return list;
+                }
+                default:
+                    throw new IllegalStateException("Unknown value tag " + tag + " at " + (position - 1));
+            }
+        }
+    }
+
+    /**
+     * The users of a mapped snapshot, looked up by binary search over the directory and decoded on demand.
+     */
+    private static final class MappedUserSource implements UserSource {
+        private final ByteBuffer buffer;
+        private final String[] dictionary;
+        private final List<List<String>> groupLists;
+        private final int directoryStart;
+        private final int count;
+        private final int recordsStart;
+
+        MappedUserSource(ByteBuffer buffer, String[] dictionary, List<List<String>> groupLists, int directoryStart,
+            int count, int recordsStart) {
+            this.buffer = buffer;
+            this.dictionary = dictionary;
+            this.groupLists = groupLists;
+            this.directoryStart = directoryStart;
+            this.count = count;
+            this.recordsStart = recordsStart;
+        }
+
+        @Nullable
+        @Override
+        public PermissionUser get(UUID id) {
+            final int entry = find(id);
+            return entry < 0 ? null : decode(id, buffer.getInt(entry + 16));
+        }
+
+        @Override
+        public boolean contains(UUID id) {
+            return find(id) >= 0;
+        }
+
+        /**
+         * Return the position of the directory entry of the given UUID, or {@code -1} if there is none.
+         */
+        private int find(UUID id) {
+            final long msb = id.getMostSignificantBits();
+            final long lsb = id.getLeastSignificantBits();
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final int entry = directoryStart + mid * DIRECTORY_ENTRY_SIZE;
+                int cmp = Long.compare(buffer.getLong(entry), msb);
+                if (cmp == 0) cmp = Long.compare(buffer.getLong(entry + 8), lsb);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return entry;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Decode the user record at the given offset, or return {@code null} if it is corrupt. The directory is checked
+         * when the snapshot is mapped, but the records themselves are only decoded here.
+         */
+        @Nullable
+        private PermissionUser decode(UUID id, int offset) {
+            try {
+                return decodeRecord(id, offset);
+            } catch (RuntimeException e) {
+                LOGGER.error("Failed to decode user {} from the binary permissions snapshot; ignoring the user", id, e);
+                return null;
+            }
+        }
+
+        private PermissionUser decodeRecord(UUID id, int offset) {
+            final Decoder decoder = new Decoder(buffer, recordsStart + offset, dictionary);
+            final int groupList = decoder.readVarInt();
+            final List<String> groups = groupList == 0 ? Collections.emptyList() : groupLists.get(groupList - 1);
+            final NodeIndex.Builder permissions = NodeIndex.builder();
+            final int entries = decoder.readCount();
+            for (int i = 0; i < entries; i++) {
+                final String node = dictionary[decoder.readVarInt()];
+                permissions.put(node, SocketPermissionHandler.wrapValue(decoder.readValue(null)));
+            }
+            return new PermissionUser(id, groups, permissions.build());
+        }
+
+        @Override
+        public Collection<List<String>> getGroupLists() {
+            return groupLists;
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+
+        @Override
+        public void forEach(Consumer<PermissionUser> action) {
+            for (int i = 0; i < count; i++) {
+                final int entry = directoryStart + i * DIRECTORY_ENTRY_SIZE;
+                final UUID id = new UUID(buffer.getLong(entry), buffer.getLong(entry + 8));
+                final PermissionUser user = decode(id, buffer.getInt(entry + 16));
+                if (user != null) action.accept(user);
+            }
+        }
+    }
+}
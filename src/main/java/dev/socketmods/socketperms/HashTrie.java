@@ -0,0 +1,219 @@
+package dev.socketmods.socketperms;
+
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+
+/**
+ * An immutable hash array mapped trie, a persistent map of values by key.
+ * <p>
+ * Each level of the trie consumes five bits of the hash of the key, and holds only the slots in use, addressed through a
+ * bitmap. {@link #with(Object, Object)} and {@link #without(Object)} copy only the nodes on the path to the changed entry,
+ * and share all other nodes with this trie, so a change costs time and memory logarithmic in the size of the trie rather
+ * than linear. Keys whose hashes collide entirely are kept in a list at the bottom of the trie, so keys should have
+ * well-distributed hash codes.
+ * <p>
+ * This class is immutable and thread-safe to access.
+ *
+ * @param <K> The type of the keys
+ * @param <V> The type of the values
+ */
+public final class HashTrie<K, V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final Object[] NO_SLOTS = new Object[0];
+    private static final HashTrie<?, ?> EMPTY = new HashTrie<>(new Node(0, NO_SLOTS), 0);
+
+    /**
+     * The root node. The slots of a node are either {@link Leaf leaves} or child nodes.
+     */
+    private final Node root;
+    private final int size;
+
+    private HashTrie(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> HashTrie<K, V> empty() {
+        return (HashTrie<K, V>) EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        final int hash = hash(key);
+        Node node = root;
+        for (int shift = 0; ; shift += BITS) {
+            if (shift >= Integer.SIZE) return (V) findCollision(node, key);
+            final int bit = 1 << ((hash >>> shift) & MASK);
+            if ((node.bitmap & bit) == 0) return null;
+            final Object slot = node.slots[index(node.bitmap, bit)];
+            if (slot instanceof Node) {
+                node = (Node) slot;
+                continue;
+            }
+            final Leaf leaf = (Leaf) slot;
+            return leaf.key.equals(key) ? (V) leaf.value : null;
+        }
+    }
+
+    /**
+     * Return a new trie with the given value put for the given key, replacing any existing value.
+     */
+    public HashTrie<K, V> with(K key, V value) {
+        final boolean added = !containsKey(key);
+        return new HashTrie<>(put(root, new Leaf(key, value), hash(key), 0), added ? size + 1 : size);
+    }
+
+    /**
+     * Return a new trie without the given key, or this trie if it has no value for the key.
+     */
+    public HashTrie<K, V> without(K key) {
+        if (!containsKey(key)) return this;
+        return new HashTrie<>(remove(root, key, hash(key), 0), size - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<K, V> action) {
+        forEach(root, leaf -> action.accept((K) leaf.key, (V) leaf.value));
+    }
+
+    private static void forEach(Node node, Consumer<Leaf> action) {
+        for (Object slot : node.slots) {
+            if (slot instanceof Node) {
+                forEach((Node) slot, action);
+            } else {
+                action.accept((Leaf) slot);
+            }
+        }
+    }
+
+    private static int hash(Object key) {
+        final int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int index(int bitmap, int bit) {
+        return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    @Nullable
+    private static Object findCollision(Node node, Object key) {
+        for (Object slot : node.slots) {
+            final Leaf leaf = (Leaf) slot;
+            if (leaf.key.equals(key)) return leaf.value;
+        }
+        return null;
+    }
+
+    private static Node put(Node node, Leaf leaf, int hash, int shift) {
+        if (shift >= Integer.SIZE) {
+            for (int i = 0; i < node.slots.length; i++) {
+                if (((Leaf) node.slots[i]).key.equals(leaf.key)) return node.replace(i, leaf);
+            }
+            return new Node(0, insert(node.slots, node.slots.length, leaf));
+        }
+        final int bit = 1 << ((hash >>> shift) & MASK);
+        final int index = index(node.bitmap, bit);
+        if ((node.bitmap & bit) == 0) return new Node(node.bitmap | bit, insert(node.slots, index, leaf));
+        final Object slot = node.slots[index];
+        if (slot instanceof Node) return node.replace(index, put((Node) slot, leaf, hash, shift + BITS));
+        final Leaf existing = (Leaf) slot;
+        if (existing.key.equals(leaf.key)) return node.replace(index, leaf);
+        return node.replace(index, split(existing, hash(existing.key), leaf, hash, shift + BITS));
+    }
+
+    /**
+     * Create a node holding the two given leaves, whose hashes are equal below the given shift.
+     */
+    private static Node split(Leaf first, int firstHash, Leaf second, int secondHash, int shift) {
+        if (shift >= Integer.SIZE) return new Node(0, new Object[]{first, second});
+        final int firstBit = 1 << ((firstHash >>> shift) & MASK);
+        final int secondBit = 1 << ((secondHash >>> shift) & MASK);
+        if (firstBit == secondBit) {
+            return new Node(firstBit, new Object[]{split(first, firstHash, second, secondHash, shift + BITS)});
+        }
+        return new Node(firstBit | secondBit, Integer.compareUnsigned(firstBit, secondBit) < 0
+            ? new Object[]{first, second} : new Object[]{second, first});
+    }
+
+    /**
+     * Remove the given key, which must be present, from the given node.
+     */
+    private static Node remove(Node node, Object key, int hash, int shift) {
+        if (shift >= Integer.SIZE) {
+            for (int i = 0; i < node.slots.length; i++) {
+                if (((Leaf) node.slots[i]).key.equals(key)) return new Node(0, delete(node.slots, i));
+            }
+            return node;
+        }
+        final int bit = 1 << ((hash >>> shift) & MASK);
+        final int index = index(node.bitmap, bit);
+        final Object slot = node.slots[index];
+        if (slot instanceof Node) {
+            final Node child = remove((Node) slot, key, hash, shift + BITS);
+            // Pull a single remaining leaf up, so that the trie stays as shallow as after inserting the leaf alone
+            if (child.slots.length == 1 && child.slots[0] instanceof Leaf) return node.replace(index, child.slots[0]);
+            return node.replace(index, child);
+        }
+        return new Node(node.bitmap & ~bit, delete(node.slots, index));
+    }
+
+    private static Object[] insert(Object[] slots, int index, Object slot) {
+        final Object[] updated = new Object[slots.length + 1];
+        System.arraycopy(slots, 0, updated, 0, index);
+        updated[index] = slot;
+        System.arraycopy(slots, index, updated, index + 1, slots.length - index);
+        return updated;
+    }
+
+    private static Object[] delete(Object[] slots, int index) {
+        final Object[] updated = new Object[slots.length - 1];
+        System.arraycopy(slots, 0, updated, 0, index);
+        System.arraycopy(slots, index + 1, updated, index, slots.length - index - 1);
+        return updated;
+    }
+
+    private static final class Node {
+        /**
+         * The bitmap of the slots in use, or {@code 0} for a list of colliding leaves.
+         */
+        final int bitmap;
+        final Object[] slots;
+
+        Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        Node replace(int index, Object slot) {
+            final Object[] updated = slots.clone();
+            updated[index] = slot;
+            return new Node(bitmap, updated);
+        }
+    }
+
+    private static final class Leaf {
+        final Object key;
+        final Object value;
+
+        Leaf(Object key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package dev.socketmods.socketperms;
+
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import dev.socketmods.socketperms.api.PermissionAPI;
+import dev.socketmods.socketperms.api.PermissionCollectionEvent;
+import dev.socketmods.socketperms.api.PermissionNode;
+import net.minecraft.util.ResourceLocation;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * The registry of known permission nodes, as collected from mods through a {@link PermissionCollectionEvent}.
+ * <p>
+ * The nodes are collected in a single pass over all mods the first time they are needed, and kept until the registry is
+ * explicitly {@linkplain #invalidate() invalidated}; the next access then runs a new collection pass. Duplicate nodes added
+ * by mods are dropped when collected. The nodes are held in a hash set for membership checks, indexed by namespace, which
+ * is the modid of the mod declaring the node by convention, and sorted by their string form for prefix lookups.
+ * <p>
+ * If a {@link NodeManifest} is set, the nodes are written to it after every collection pass, and may be {@linkplain
+ * #loadOrCollect() loaded} from it instead of collecting them while the same mods are loaded.
+ * <p>
+ * The collected nodes are published as an immutable view through a single {@code volatile} reference, so reads never lock;
+ * only collection passes and invalidations are serialized. This class is thread-safe.
+ */
+public class KnownNodeRegistry {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    @Nullable
+    private volatile KnownNodes nodes;
+    @Nullable
+    private NodeManifest manifest;
+
+    /**
+     * Return the known nodes, collecting them first if needed.
+     *
+     * @return The unmodifiable set of known nodes, in the order they were collected
+     */
+    public Set<ResourceLocation> getNodes() {
+        return get().all;
+    }
+
+    /**
+     * Return the known nodes in the namespace of the given modid, collecting the nodes first if needed.
+     *
+     * @param modid The modid
+     *
+     * @return The unmodifiable list of known nodes in the namespace
+     */
+    public List<ResourceLocation> getNodes(String modid) {
+        return get().byNamespace.get(modid);
+    }
+
+    /**
+     * Return whether the given node is known, collecting the nodes first if needed.
+     *
+     * @param node The permission node
+     *
+     * @return {@code true} if the node is known, otherwise {@code false}
+     */
+    public boolean isKnown(ResourceLocation node) {
+        return get().all.contains(node);
+    }
+
+    /**
+     * Return the string forms of the known nodes starting with the given prefix, in lexicographic order, collecting the
+     * nodes first if needed. This takes time logarithmic in the number of known nodes, plus linear in the result.
+     *
+     * @param prefix The prefix
+     * @param limit  The maximum number of nodes to return
+     *
+     * @return The matching nodes, at most {@code limit}
+     */
+    public List<String> getNodesStartingWith(String prefix, int limit) {
+        final String[] sorted = get().sorted;
+        int index = Arrays.binarySearch(sorted, prefix);
+        if (index < 0) index = -index - 1;
+        final List<String> matches = new ArrayList<>(Math.min(limit, sorted.length - index));
+        // All strings starting with the prefix sort contiguously from the first one not less than the prefix
+        for (; index < sorted.length && matches.size() < limit && sorted[index].startsWith(prefix); index++) {
+            matches.add(sorted[index]);
+        }
+        return matches;
+    }
+
+    /**
+     * Discard the known nodes, so that they are collected again on the next access. If a collection pass is running, this
+     * waits for it to finish, so that its nodes are discarded too rather than published after the invalidation.
+     */
+    public synchronized void invalidate() {
+        nodes = null;
+    }
+
+    /**
+     * Set the manifest which the nodes are cached in, or {@code null} to not cache the nodes.
+     *
+     * @param manifest The manifest, may be {@code null}
+     */
+    public synchronized void setManifest(@Nullable NodeManifest manifest) {
+        this.manifest = manifest;
+    }
+
+    /**
+     * Load the known nodes from the manifest if it is current, registering each of them, or otherwise collect them from all
+     * mods.
+     */
+    public synchronized void loadOrCollect() {
+        if (manifest != null) {
+            try {
+                final List<ResourceLocation> cached = manifest.read();
+                if (cached != null) {
+                    cached.forEach(PermissionNode::of);
+                    nodes = new KnownNodes(cached);
+                    return;
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Failed to read the known permission node manifest; collecting nodes from mods", e);
+            }
+        }
+        collect();
+    }
+
+    /**
+     * Collect the known nodes from all mods now, replacing any previously collected nodes.
+     */
+    public synchronized void collect() {
+        final KnownNodes collected = new KnownNodes(PermissionAPI.collectKnownNodes(null));
+        nodes = collected;
+        if (manifest != null) {
+            try {
+                manifest.write(collected.all);
+            } catch (IOException e) {
+                LOGGER.warn("Failed to write the known permission node manifest", e);
+            }
+        }
+    }
+
+    private KnownNodes get() {
+        KnownNodes current = nodes;
+        if (current == null) {
+            synchronized (this) {
+                if (nodes == null) collect();
+                current = nodes;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * An immutable set of known nodes, with its indexes by namespace and by prefix.
+     */
+    private static final class KnownNodes {
+        final ImmutableSet<ResourceLocation> all;
+        final ImmutableListMultimap<String, ResourceLocation> byNamespace;
+        /**
+         * The string forms of the nodes, sorted.
+         */
+        final String[] sorted;
+
+        KnownNodes(Collection<ResourceLocation> nodes) {
+            this.all = ImmutableSet.copyOf(nodes);
+            final ImmutableListMultimap.Builder<String, ResourceLocation> builder = ImmutableListMultimap.builder();
+            for (ResourceLocation node : all) {
+                builder.put(node.getNamespace(), node);
+            }
+            this.byNamespace = builder.build();
+            this.sorted = new String[all.size()];
+            int index = 0;
+            for (ResourceLocation node : all) {
+                sorted[index++] = node.toString();
+            }
+            Arrays.sort(sorted);
+        }
+    }
+}
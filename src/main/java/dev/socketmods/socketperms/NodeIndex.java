@@ -0,0 +1,483 @@
+package dev.socketmods.socketperms;
+
+import com.electronwill.nightconfig.core.Config;
+import com.electronwill.nightconfig.core.UnmodifiableConfig;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import dev.socketmods.socketperms.api.IPermissionValue;
+import dev.socketmods.socketperms.api.PermissionNode;
+import net.minecraft.util.ResourceLocation;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import javax.annotation.Nullable;
+
+/**
+ * An immutable, flat index of permission nodes to their compiled values.
+ * <p>
+ * The index is compiled once from a permissions config, where each top-level table is a namespace and the tables and values
+ * nested under it form the dot-separated path of the node. For example, the config value at {@code socketperms.interact.block}
+ * is compiled to the node {@code socketperms:interact.block}.
+ * <p>
+ * Lookups are a single hash probe keyed directly on the {@link ResourceLocation} of the node, with no path splitting or
+ * allocation. The config is only the source format; it is not consulted after compilation. Every node in the index is
+ * {@linkplain PermissionNode registered} on compilation, so lookups by {@link PermissionNode} handle go by the ID of the
+ * handle. {@linkplain #merge(List) Merged} indexes, which are built per group and per group list and shared by all users
+ * of them, and indexes whose values cover a large part of the handle IDs up to their highest one, hold their values in
+ * a dense array indexed by ID, so such a lookup is a single array access. All other indexes, such as the overrides of
+ * each user, hold the sorted IDs of their values and a parallel array of the values, and are searched by binary search,
+ * so their memory use is proportional to their own size rather than to the number of registered handles.
+ * <p>
+ * Handles are never unregistered, so every distinct node that has had a value in any compiled index, including nodes which
+ * were since removed from the config or from the overrides of a user, keeps its handle ID for the lifetime of the game.
+ * The number of registered handles, and with it the size of the dense arrays and wildcard memos, is therefore bounded by
+ * the number of distinct nodes collected from mods or ever granted, not by the contents of the current config alone.
+ * Reloading a config whose set of nodes is unchanged registers no new handles.
+ * <p>
+ * Nodes under a namespace which has no values in the index are rejected by a probe into the set of known namespaces before
+ * the node itself is hashed. Queries never modify the index, so memory use does not grow with the number of distinct nodes
+ * queried.
+ * <p>
+ * Wildcard grants, such as {@code mymod:*} or {@code socketperms:interact.*}, are compiled into a {@link WildcardTrie} for
+ * each namespace. A node with no exact value takes the value of the longest wildcard matching it, so a narrower wildcard with
+ * a {@code false} value negates a broader grant. In indexes with a dense array, the result of matching a node handle against
+ * the wildcards is memoized by the ID of the handle, so repeated lookups of the same handle do not walk the trie again; the
+ * memo is bounded by the number of registered handles.
+ * <p>
+ * This class is immutable and thread-safe to access.
+ */
+public final class NodeIndex {
+    private static final Logger LOGGER = LogManager.getLogger();
+    /**
+     * An empty node index.
+     */
+    public static final NodeIndex EMPTY = new NodeIndex(ImmutableMap.of(), ImmutableMap.of(), false);
+    private static final String WILDCARD = "*";
+    private static final String WILDCARD_SUFFIX = "." + WILDCARD;
+    /**
+     * The maximum number of array slots per value for which an index which is not merged is still held in a dense array.
+     */
+    private static final int MAX_DENSE_SLOTS_PER_VALUE = 8;
+    private static final int[] NO_IDS = new int[0];
+    private static final IPermissionValue[] NO_VALUES = new IPermissionValue[0];
+
+    private final Map<ResourceLocation, IPermissionValue> values;
+    /**
+     * The wildcard grants of each namespace, by prefix, kept so that indexes can be {@linkplain #merge(List) merged}.
+     */
+    private final Map<String, Map<String, IPermissionValue>> wildcardGrants;
+    private final Map<String, WildcardTrie> wildcards;
+    private final Set<String> namespaces;
+    /**
+     * The values by handle ID, or {@code null} if the values are held in {@link #ids} and {@link #idValues}.
+     */
+    @Nullable
+    private final IPermissionValue[] byId;
+    /**
+     * The sorted handle IDs of the values, if not held in {@link #byId}.
+     */
+    private final int[] ids;
+    /**
+     * The values of the handle IDs in {@link #ids}, in the same order.
+     */
+    private final IPermissionValue[] idValues;
+    /**
+     * The memoized wildcard matches of node handles, by handle ID. Entries are deterministic, so racing writes are benign;
+     * a write lost to a racing resize is recomputed on the next lookup.
+     */
+    private volatile IPermissionValue[] wildcardMemo = new IPermissionValue[0];
+
+    private NodeIndex(Map<ResourceLocation, IPermissionValue> values,
+        Map<String, Map<String, IPermissionValue>> wildcardGrants, boolean merged) {
+        this.values = values;
+        this.wildcardGrants = wildcardGrants;
+        final ImmutableMap.Builder<String, WildcardTrie> wildcards = ImmutableMap.builder();
+        wildcardGrants.forEach((namespace, grants) -> wildcards.put(namespace, WildcardTrie.build(grants)));
+        this.wildcards = wildcards.build();
+        final ImmutableSet.Builder<String> namespaces = ImmutableSet.builder();
+        namespaces.addAll(wildcardGrants.keySet());
+        final int[] ids = new int[values.size()];
+        int maxId = -1;
+        int count = 0;
+        for (ResourceLocation node : values.keySet()) {
+            namespaces.add(node.getNamespace());
+            ids[count] = PermissionNode.of(node).getId();
+            maxId = Math.max(maxId, ids[count++]);
+        }
+        this.namespaces = namespaces.build();
+        if (merged || (long) ids.length * MAX_DENSE_SLOTS_PER_VALUE >= maxId + 1) {
+            this.byId = new IPermissionValue[maxId + 1];
+            for (Map.Entry<ResourceLocation, IPermissionValue> entry : values.entrySet()) {
+                byId[PermissionNode.of(entry.getKey()).getId()] = entry.getValue();
+            }
+            this.ids = NO_IDS;
+            this.idValues = NO_VALUES;
+        } else {
+            Arrays.sort(ids);
+            this.byId = null;
+            this.ids = ids;
+            this.idValues = new IPermissionValue[ids.length];
+            for (Map.Entry<ResourceLocation, IPermissionValue> entry : values.entrySet()) {
+                idValues[Arrays.binarySearch(ids, PermissionNode.of(entry.getKey()).getId())] = entry.getValue();
+            }
+        }
+    }
+
+    /**
+     * Return {@code true} if any permission node under the given namespace has a value in this index, otherwise {@code
+     * false}.
+     *
+     * @param namespace The namespace of the permission nodes
+     *
+     * @return {@code true} if the namespace is known to this index, otherwise {@code false}
+     */
+    public boolean hasNamespace(String namespace) {
+        return namespaces.contains(namespace);
+    }
+
+    /**
+     * Return the compiled value for the given permission node, or {@link IPermissionValue#EMPTY} if the node has no value in
+     * this index.
+     *
+     * @param node The permission node
+     *
+     * @return The value for the node, or an empty permission value
+     */
+    public IPermissionValue get(ResourceLocation node) {
+        if (!namespaces.contains(node.getNamespace())) return IPermissionValue.EMPTY;
+        final IPermissionValue value = values.get(node);
+        return value != null ? value : matchWildcard(node);
+    }
+
+    /**
+     * Return the compiled value for the given permission node handle, or {@link IPermissionValue#EMPTY} if the node has no
+     * value in this index.
+     *
+     * @param node The permission node handle
+     *
+     * @return The value for the node, or an empty permission value
+     */
+    public IPermissionValue get(PermissionNode node) {
+        final int id = node.getId();
+        if (byId == null) {
+            final int index = Arrays.binarySearch(ids, id);
+            if (index >= 0) return idValues[index];
+            return wildcards.isEmpty() ? IPermissionValue.EMPTY : matchWildcard(node.getNode());
+        }
+        if (id < byId.length) {
+            final IPermissionValue value = byId[id];
+            if (value != null) return value;
+        }
+        if (wildcards.isEmpty()) return IPermissionValue.EMPTY;
+
+        IPermissionValue[] memo = wildcardMemo;
+        if (id < memo.length) {
+            final IPermissionValue value = memo[id];
+            if (value != null) return value;
+        }
+        final IPermissionValue value = matchWildcard(node.getNode());
+        if (id >= memo.length) {
+            memo = Arrays.copyOf(memo, Math.max(id + 1, PermissionNode.count()));
+            wildcardMemo = memo;
+        }
+        memo[id] = value;
+        return value;
+    }
+
+    private IPermissionValue matchWildcard(ResourceLocation node) {
+        final WildcardTrie trie = wildcards.get(node.getNamespace());
+        final IPermissionValue value = trie != null ? trie.match(node.getPath()) : null;
+        return value != null ? value : IPermissionValue.EMPTY;
+    }
+
+    /**
+     * Return {@code true} if this index has any wildcard grants, otherwise {@code false}.
+     *
+     * @return {@code true} if this index has wildcard grants, otherwise {@code false}
+     */
+    public boolean hasWildcards() {
+        return !wildcards.isEmpty();
+    }
+
+    /**
+     * Return the set of permission nodes with values in this index.
+     *
+     * @return An unmodifiable set of the nodes in this index
+     */
+    public Set<ResourceLocation> getNodes() {
+        return values.keySet();
+    }
+
+    /**
+     * Return the number of permission nodes with exact values in this index, not counting wildcard grants.
+     *
+     * @return The number of nodes in this index
+     */
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * Compile the given permissions config into a node index.
+     * <p>
+     * Top-level entries which are {@linkplain SocketPermissionHandler#RESERVED_SECTIONS reserved sections} are ignored.
+     * Top-level entries which are not tables, and values which cannot be wrapped into a non-empty permission value or whose
+     * path is not a valid permission node, are skipped with a warning. If the same node is defined more than once (such as
+     * through a dotted key and a nested table), the value encountered last wins.
+     * <p>
+     * A value under the key {@code *} is a wildcard grant, for all nodes under the path of its table (or the whole namespace,
+     * for a wildcard directly in the namespace table).
+     *
+     * @param config The permissions config
+     *
+     * @return The compiled node index
+     */
+    public static NodeIndex compile(UnmodifiableConfig config) {
+        final Builder builder = builder();
+        for (UnmodifiableConfig.Entry entry : config.entrySet()) {
+            if (SocketPermissionHandler.RESERVED_SECTIONS.contains(entry.getKey())) continue;
+            final Object namespaceValue = entry.getValue();
+            if (namespaceValue instanceof UnmodifiableConfig) {
+                flatten(entry.getKey(), null, (UnmodifiableConfig) namespaceValue, builder);
+            } else {
+                LOGGER.warn("Skipping top-level permissions entry {} which is not a namespace table", entry.getKey());
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Create a new builder for a node index.
+     *
+     * @return A new builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Merge the given node indexes into a single index, where the values of later indexes take precedence over the values of
+     * earlier indexes. Each node resolves to the value it has in the latest index which has any value for it, whether an
+     * exact value or the longest matching wildcard grant; so a wildcard grant of a later index overrides the exact values
+     * and narrower wildcard grants of earlier indexes under its prefix. The merged index holds its values in a dense array,
+     * as it is expected to be shared; if only one of the given indexes has any values, it is returned as is when it already
+     * holds its values in a dense array, and otherwise copied into one.
+     *
+     * @param layers The node indexes to merge, from lowest to highest precedence
+     *
+     * @return The merged node index
+     */
+    public static NodeIndex merge(List<NodeIndex> layers) {
+        NodeIndex single = EMPTY;
+        int nonEmpty = 0;
+        for (NodeIndex layer : layers) {
+            if (layer.values.isEmpty() && layer.wildcardGrants.isEmpty()) continue;
+            single = layer;
+            nonEmpty++;
+        }
+        if (nonEmpty == 0 || (nonEmpty == 1 && single.byId != null)) return single;
+        if (nonEmpty == 1) return create(single.values, single.wildcardGrants, true);
+
+        final Map<ResourceLocation, IPermissionValue> values = new LinkedHashMap<>();
+        final Map<String, Map<String, IPermissionValue>> wildcards = new LinkedHashMap<>();
+        for (NodeIndex layer : layers) {
+            layer.wildcardGrants.forEach((namespace, grants) -> {
+                final Map<String, IPermissionValue> merged = wildcards.computeIfAbsent(namespace,
+                    k -> new LinkedHashMap<>());
+                for (String prefix : grants.keySet()) {
+                    // Within the prefix, this layer has a value for every node, which takes precedence over earlier layers
+                    values.keySet().removeIf(node -> node.getNamespace().equals(namespace)
+                        && covers(prefix, node.getPath()));
+                    merged.keySet().removeIf(other -> covers(prefix, other));
+                }
+                merged.putAll(grants);
+            });
+            values.putAll(layer.values);
+        }
+        return create(values, wildcards, true);
+    }
+
+    /**
+     * Return {@code true} if the wildcard grant with the given prefix matches the given node path, or the prefix of a
+     * narrower wildcard grant, otherwise {@code false}.
+     */
+    private static boolean covers(String prefix, String path) {
+        return prefix.isEmpty() ? !path.isEmpty() : path.length() > prefix.length() + 1 && path.startsWith(prefix)
+            && path.charAt(prefix.length()) == '.';
+    }
+
+    /**
+     * Create a node index holding the given exact values, with no wildcard grants.
+     *
+     * @param values The values of the nodes
+     *
+     * @return The node index
+     */
+    public static NodeIndex of(Map<ResourceLocation, IPermissionValue> values) {
+        return create(values, ImmutableMap.of(), false);
+    }
+
+    private static NodeIndex create(Map<ResourceLocation, IPermissionValue> values,
+        Map<String, Map<String, IPermissionValue>> wildcards, boolean merged) {
+        if (values.isEmpty() && wildcards.isEmpty()) return EMPTY;
+        final ImmutableMap.Builder<String, Map<String, IPermissionValue>> grants = ImmutableMap.builder();
+        wildcards.forEach((namespace, prefixes) -> grants.put(namespace, ImmutableMap.copyOf(prefixes)));
+        return new NodeIndex(ImmutableMap.copyOf(values), grants.build(), merged);
+    }
+
+    private static void flatten(String namespace, @Nullable String prefix, UnmodifiableConfig config, Builder builder) {
+        for (UnmodifiableConfig.Entry entry : config.entrySet()) {
+            final String path = prefix == null ? entry.getKey() : prefix + '.' + entry.getKey();
+            final Object value = entry.getValue();
+            if (value instanceof UnmodifiableConfig) {
+                flatten(namespace, path, (UnmodifiableConfig) value, builder);
+                continue;
+            }
+            final IPermissionValue permValue = SocketPermissionHandler.wrapValue(value);
+            if (permValue.isEmpty()) {
+                LOGGER.warn("Skipping unsupported value for permission node {}:{}: {}", namespace, path, value);
+                continue;
+            }
+            if (!builder.put(namespace, path, permValue)) {
+                LOGGER.warn("Skipping invalid permission node {}:{}", namespace, path);
+            }
+        }
+    }
+
+    /**
+     * Call the given action for every value and wildcard grant in this index, with the node in the form it is declared in
+     * the config: {@code namespace:path} for exact values, {@code namespace:prefix.*} for wildcard grants, and {@code
+     * namespace:*} for namespace wildcard grants.
+     *
+     * @param action The action to call with each node and its value
+     */
+    public void forEachEntry(BiConsumer<String, IPermissionValue> action) {
+        values.forEach((node, value) -> action.accept(node.toString(), value));
+        wildcardGrants.forEach((namespace, grants) -> grants.forEach((prefix, value) ->
+            action.accept(namespace + ':' + (prefix.isEmpty() ? WILDCARD : prefix + WILDCARD_SUFFIX), value)));
+    }
+
+    /**
+     * Write every value and wildcard grant in this index into the given table, laid out as the top-level permissions of the
+     * config, so that compiling the table yields an equal index.
+     *
+     * @param table The table to write into
+     */
+    public void writeTo(Config table) {
+        forEachEntry((node, value) -> table.set(toConfigPath(node), SocketPermissionHandler.unwrapValue(value)));
+    }
+
+    /**
+     * Return a new builder holding the values and wildcard grants of this index.
+     *
+     * @return A new builder with the contents of this index
+     */
+    public Builder toBuilder() {
+        final Builder builder = new Builder();
+        builder.values.putAll(values);
+        wildcardGrants.forEach((namespace, grants) -> builder.wildcards.put(namespace, new LinkedHashMap<>(grants)));
+        return builder;
+    }
+
+    /**
+     * Return the path of the config value for the given node, in the form given by {@link #forEachEntry(BiConsumer)}: the
+     * namespace, followed by each segment of the path.
+     *
+     * @param node The node, as {@code namespace:path}
+     *
+     * @return The config path of the node
+     *
+     * @throws IllegalArgumentException If the node has no namespace
+     */
+    public static List<String> toConfigPath(String node) {
+        final int separator = node.indexOf(':');
+        Preconditions.checkArgument(separator > 0, "Permission node %s has no namespace", node);
+        final List<String> path = new ArrayList<>();
+        path.add(node.substring(0, separator));
+        path.addAll(Arrays.asList(node.substring(separator + 1).split("\\.", -1)));
+        return path;
+    }
+
+    /**
+     * A builder for a node index. If the same node is put more than once, the value put last wins.
+     */
+    public static final class Builder {
+        private final Map<ResourceLocation, IPermissionValue> values = new LinkedHashMap<>();
+        private final Map<String, Map<String, IPermissionValue>> wildcards = new LinkedHashMap<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Put the given value for the node with the given namespace and path. A path of {@code *} or ending with {@code .*}
+         * is a wildcard grant.
+         *
+         * @param namespace The namespace of the node
+         * @param path      The path of the node
+         * @param value     The value of the node
+         *
+         * @return {@code true} if the value was put, or {@code false} if the namespace and path are not a valid node
+         */
+        public boolean put(String namespace, String path, IPermissionValue value) {
+            final boolean wildcard = path.equals(WILDCARD) || path.endsWith(WILDCARD_SUFFIX);
+            final String nodePath = wildcard ? path.substring(0, Math.max(0, path.length() - WILDCARD_SUFFIX.length())) : path;
+            final ResourceLocation node = ResourceLocation.tryCreate(namespace + ':' + nodePath);
+            if (node == null) return false;
+            if (wildcard) {
+                wildcards.computeIfAbsent(namespace, k -> new LinkedHashMap<>()).put(nodePath, value);
+            } else {
+                values.put(node, value);
+            }
+            return true;
+        }
+
+        /**
+         * Put the given value for the given node, in the form given by {@link #forEachEntry(BiConsumer)}.
+         *
+         * @param node  The node, as {@code namespace:path}
+         * @param value The value of the node
+         *
+         * @return {@code true} if the value was put, or {@code false} if the node is not valid
+         */
+        public boolean put(String node, IPermissionValue value) {
+            final int separator = node.indexOf(':');
+            return separator >= 0 && put(node.substring(0, separator), node.substring(separator + 1), value);
+        }
+
+        /**
+         * Remove the value or wildcard grant of the given node, in the form given by {@link #forEachEntry(BiConsumer)}.
+         *
+         * @param node The node, as {@code namespace:path}
+         *
+         * @return {@code true} if the node had a value, otherwise {@code false}
+         */
+        public boolean remove(String node) {
+            final int separator = node.indexOf(':');
+            if (separator < 0) return false;
+            final String namespace = node.substring(0, separator);
+            final String path = node.substring(separator + 1);
+            if (path.equals(WILDCARD) || path.endsWith(WILDCARD_SUFFIX)) {
+                final Map<String, IPermissionValue> grants = wildcards.get(namespace);
+                if (grants == null) return false;
+                final String prefix = path.substring(0, Math.max(0, path.length() - WILDCARD_SUFFIX.length()));
+                final boolean removed = grants.remove(prefix) != null;
+                if (grants.isEmpty()) wildcards.remove(namespace);
+                return removed;
+            }
+            final ResourceLocation location = ResourceLocation.tryCreate(node);
+            return location != null && values.remove(location) != null;
+        }
+
+        public NodeIndex build() {
+            return create(values, wildcards, false);
+        }
+    }
+}
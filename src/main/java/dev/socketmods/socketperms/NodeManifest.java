@@ -0,0 +1,124 @@
+package dev.socketmods.socketperms;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.ResourceLocationException;
+import net.minecraftforge.fml.ModList;
+import net.minecraftforge.fml.loading.moddiscovery.ModInfo;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+import javax.annotation.Nullable;
+
+/**
+ * A file caching the known permission nodes collected from mods, so that the collection pass can be skipped on startup.
+ * <p>
+ * The manifest is keyed by a hash of the IDs and versions of the loaded mods. It is only read back while the same set of
+ * mods is loaded; once a mod is added, removed or updated, the hash no longer matches and the nodes are collected again.
+ * <p>
+ * The file is plain text: a header line with the format version and the mod list hash, then one node per line.
+ */
+public final class NodeManifest {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final String HEADER = "socketperms-nodes";
+    /**
+     * The version of the manifest format. Manifests of any other version are ignored.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    private final Path path;
+    private final String modListHash;
+
+    /**
+     * Create a manifest at the given path, for the given mod list hash.
+     *
+     * @param path        The path of the manifest file
+     * @param modListHash The hash of the loaded mods, as from {@link #hashModList()}
+     */
+    public NodeManifest(Path path, String modListHash) {
+        this.path = Preconditions.checkNotNull(path, "Path must not be null");
+        this.modListHash = Preconditions.checkNotNull(modListHash, "Mod list hash must not be null");
+    }
+
+    /**
+     * Compute the hash of the IDs and versions of the currently loaded mods, independent of their load order.
+     *
+     * @return The hash, as a hexadecimal string
+     */
+    public static String hashModList() {
+        final TreeMap<String, String> versions = new TreeMap<>();
+        for (ModInfo mod : ModList.get().getMods()) {
+            versions.put(mod.getModId(), String.valueOf(mod.getVersion()));
+        }
+        final Hasher hasher = Hashing.sha256().newHasher();
+        versions.forEach((modid, version) -> hasher.putString(modid, StandardCharsets.UTF_8).putByte((byte) 0)
+            .putString(version, StandardCharsets.UTF_8).putByte((byte) 0));
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Read the nodes from the manifest, or return {@code null} if the file does not exist or was written for a different
+     * mod list or format.
+     *
+     * @return The nodes, or {@code null} if the manifest is missing or stale
+     *
+     * @throws IOException If the file could not be read
+     */
+    @Nullable
+    public List<ResourceLocation> read() throws IOException {
+        if (!Files.exists(path)) return null;
+        final List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals(header())) {
+            LOGGER.debug("Ignoring node manifest {} written for a different mod list", path);
+            return null;
+        }
+        final List<ResourceLocation> nodes = new ArrayList<>(lines.size() - 1);
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isEmpty()) continue;
+            try {
+                nodes.add(new ResourceLocation(line));
+            } catch (ResourceLocationException e) {
+                LOGGER.warn("Ignoring node manifest {} with invalid node {}", path, line);
+                return null;
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Write the given nodes to the manifest, through a temporary file which is moved over the file.
+     *
+     * @param nodes The nodes
+     *
+     * @throws IOException If the file could not be written
+     */
+    public void write(Collection<ResourceLocation> nodes) throws IOException {
+        Files.createDirectories(path.getParent());
+        final Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(header());
+            writer.newLine();
+            for (ResourceLocation node : nodes) {
+                writer.write(node.toString());
+                writer.newLine();
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private String header() {
+        return HEADER + " " + FORMAT_VERSION + " " + modListHash;
+    }
+}
@@ -1,6 +1,7 @@
 package dev.socketmods.socketperms;
 
 import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.StringArgumentType;
 import com.mojang.brigadier.context.CommandContext;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import com.mojang.brigadier.suggestion.Suggestions;
@@ -17,17 +18,49 @@ import net.minecraft.util.text.TranslationTextComponent;
 import net.minecraftforge.event.RegisterCommandsEvent;
 
 import java.util.concurrent.CompletableFuture;
+import javax.annotation.Nullable;
 
 import static net.minecraft.command.Commands.argument;
 import static net.minecraft.command.Commands.literal;
 
 public class PermissionCommand {
+    /**
+     * The vanilla permission level required to edit permissions.
+     */
+    private static final int EDIT_PERMISSION_LEVEL = 3;
+    /**
+     * The maximum number of permission nodes suggested at once.
+     */
+    private static final int SUGGESTION_PAGE_SIZE = 50;
+
     static void onRegisterCommands(RegisterCommandsEvent event) {
         PermissionCommand.register(event.getDispatcher());
     }
 
     public static void register(CommandDispatcher<CommandSource> dispatcher) {
         dispatcher.register(literal("socketperms")
+            .then(literal("nodes")
+                .requires(source -> source.hasPermissionLevel(EDIT_PERMISSION_LEVEL))
+                .then(literal("refresh")
+                    .executes(PermissionCommand::refreshNodes)
+                )
+            )
+            .then(literal("set")
+                .requires(source -> source.hasPermissionLevel(EDIT_PERMISSION_LEVEL))
+                .then(argument("permission", ResourceLocationArgument.resourceLocation())
+                    .suggests(PermissionCommand::suggestPermissions)
+                    .then(argument("value", StringArgumentType.word())
+                        .executes(PermissionCommand::setPermission)
+                    )
+                )
+            )
+            .then(literal("unset")
+                .requires(source -> source.hasPermissionLevel(EDIT_PERMISSION_LEVEL))
+                .then(argument("permission", ResourceLocationArgument.resourceLocation())
+                    .suggests(PermissionCommand::suggestPermissions)
+                    .executes(PermissionCommand::unsetPermission)
+                )
+            )
             .then(argument("permission", ResourceLocationArgument.resourceLocation())
                 .suggests(PermissionCommand::suggestPermissions)
                 .executes(PermissionCommand::showPermission)
@@ -35,13 +68,15 @@ public class PermissionCommand {
         );
     }
 
+    /**
+     * Suggest the known permission nodes starting with the typed input, up to a page of them. The nodes are looked up in the
+     * sorted index of the known node registry, so only the matching nodes are visited.
+     */
     static CompletableFuture<Suggestions> suggestPermissions(CommandContext<CommandSource> ctx, SuggestionsBuilder builder) {
         final IPermissionHandler handler = PermissionAPI.getHandler();
         if (handler instanceof SocketPermissionHandler) {
             ((SocketPermissionHandler) handler).getKnownNodes()
-                .stream()
-                .distinct()
-                .map(ResourceLocation::toString)
+                .getNodesStartingWith(builder.getRemaining(), SUGGESTION_PAGE_SIZE)
                 .forEach(builder::suggest);
         }
         return builder.buildFuture();
@@ -51,10 +86,11 @@ public class PermissionCommand {
         final CommandSource source = ctx.getSource();
         final ResourceLocation node = ResourceLocationArgument.getResourceLocation(ctx, "permission");
 
-        final PermissionContext permContext = PermissionContext.builder()
-            .add(StandardContextKeys.WORLD, source.getWorld())
-            .addNullable(StandardContextKeys.THIS_ENTITY, source.getEntity())
-            .add(StandardContextKeys.THIS_POSITION, source.getPos())
+        final PermissionContext permContext = !PermissionAPI.usesContext() ? PermissionContext.EMPTY
+            : PermissionContext.builder()
+            .addLazy(StandardContextKeys.WORLD, source::getWorld)
+            .addLazy(StandardContextKeys.THIS_ENTITY, source::getEntity)
+            .addLazy(StandardContextKeys.THIS_POSITION, source::getPos)
             .build();
 
         final IPermissionValue value = PermissionAPI
@@ -64,4 +100,78 @@ public class PermissionCommand {
 
         return 1;
     }
+
+    static int setPermission(CommandContext<CommandSource> ctx) throws CommandSyntaxException {
+        final ResourceLocation node = ResourceLocationArgument.getResourceLocation(ctx, "permission");
+        final String input = StringArgumentType.getString(ctx, "value");
+        final IPermissionValue value = SocketPermissionHandler.wrapValue(parseValue(input));
+        if (value.isEmpty()) {
+            ctx.getSource().sendErrorMessage(new TranslationTextComponent("Invalid permission value: %s", input));
+            return 0;
+        }
+        return edit(ctx.getSource(), PermissionEdit.set(PermissionEdit.Scope.GLOBAL, "", node.toString(), value));
+    }
+
+    static int unsetPermission(CommandContext<CommandSource> ctx) throws CommandSyntaxException {
+        final ResourceLocation node = ResourceLocationArgument.getResourceLocation(ctx, "permission");
+        return edit(ctx.getSource(), PermissionEdit.unset(PermissionEdit.Scope.GLOBAL, "", node.toString()));
+    }
+
+    /**
+     * Collect the known permission nodes from all mods again, and write them to the node manifest.
+     */
+    static int refreshNodes(CommandContext<CommandSource> ctx) {
+        final IPermissionHandler handler = PermissionAPI.getHandler();
+        if (!(handler instanceof SocketPermissionHandler)) {
+            ctx.getSource().sendErrorMessage(new TranslationTextComponent("Permissions are not handled by SocketPerms"));
+            return 0;
+        }
+        final KnownNodeRegistry nodes = ((SocketPermissionHandler) handler).getKnownNodes();
+        nodes.collect();
+        final int count = nodes.getNodes().size();
+        ctx.getSource().sendFeedback(new TranslationTextComponent("Collected %s known permission nodes", count), true);
+        return count;
+    }
+
+    /**
+     * Apply the given edit through the SocketPerms handler. The edit is journaled in the background, so this does not wait
+     * for it to be written.
+     */
+    private static int edit(CommandSource source, PermissionEdit edit) {
+        final IPermissionHandler handler = PermissionAPI.getHandler();
+        if (!(handler instanceof SocketPermissionHandler)) {
+            source.sendErrorMessage(new TranslationTextComponent("Permissions are not handled by SocketPerms"));
+            return 0;
+        }
+        try {
+            ((SocketPermissionHandler) handler).edit(edit);
+        } catch (IllegalArgumentException e) {
+            source.sendErrorMessage(new TranslationTextComponent("Failed to edit permission node %s: %s", edit.getNode(),
+                e.getMessage()));
+            return 0;
+        }
+        source.sendFeedback(edit.getValue() != null
+            ? new TranslationTextComponent("Set permission node %s to %s", edit.getNode(), edit.getValue())
+            : new TranslationTextComponent("Unset permission node %s", edit.getNode()), true);
+        return 1;
+    }
+
+    /**
+     * Parse the given input into a config value: a boolean, then an integer, then a decimal number, or {@code null} if it is
+     * none of them.
+     */
+    @Nullable
+    static Object parseValue(String input) {
+        if (input.equalsIgnoreCase("true") || input.equalsIgnoreCase("false")) return Boolean.parseBoolean(input);
+        try {
+            return Long.parseLong(input);
+        } catch (NumberFormatException e) {
+            // Not an integer
+        }
+        try {
+            return Double.parseDouble(input);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
 }
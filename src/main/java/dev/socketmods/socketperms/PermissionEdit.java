@@ -0,0 +1,288 @@
+package dev.socketmods.socketperms;
+
+import com.electronwill.nightconfig.core.CommentedConfig;
+import com.electronwill.nightconfig.core.UnmodifiableConfig;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import dev.socketmods.socketperms.api.IPermissionValue;
+import dev.socketmods.socketperms.groups.Group;
+import dev.socketmods.socketperms.groups.GroupIndex;
+import dev.socketmods.socketperms.groups.PermissionUser;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import javax.annotation.Nullable;
+
+import static dev.socketmods.socketperms.SocketPermissionHandler.GROUPS_SECTION;
+
+/**
+ * A single runtime edit of the permissions: setting or unsetting the value of one node, for the global permissions, a
+ * group, or a user.
+ * <p>
+ * Edits are applied to the source config and to the compiled snapshot separately. Both are done incrementally: the config
+ * is copied only along the path to the edited value, and only the edited index (and the group lists depending on it) is
+ * built again. Users are held only in the snapshot, so user edits leave the config unchanged.
+ * <p>
+ * Applying an edit is idempotent, so an edit may safely be applied again on top of a state which already includes it, as
+ * when the journal is replayed over a file it was already compacted into.
+ * <p>
+ * This class is immutable and thread-safe to access.
+ */
+public final class PermissionEdit {
+    private static final byte VALUE_NONE = 0;
+    private static final byte VALUE_BOOLEAN = 1;
+    private static final byte VALUE_LONG = 2;
+    private static final byte VALUE_DOUBLE = 3;
+
+    /**
+     * The permissions which an edit applies to.
+     */
+    public enum Scope {
+        /**
+         * The global permissions. The target is empty.
+         */
+        GLOBAL,
+        /**
+         * The permissions of a group, which is created if it does not exist. The target is the name of the group.
+         */
+        GROUP,
+        /**
+         * The permission overrides of a user, who is created if they do not exist. The target is the UUID of the user.
+         */
+        USER
+    }
+
+    private final Scope scope;
+    private final String target;
+    private final String node;
+    @Nullable
+    private final IPermissionValue value;
+
+    private PermissionEdit(Scope scope, String target, String node, @Nullable IPermissionValue value) {
+        this.scope = Preconditions.checkNotNull(scope, "Scope must not be null");
+        this.target = Preconditions.checkNotNull(target, "Target must not be null");
+        this.node = Preconditions.checkNotNull(node, "Node must not be null");
+        this.value = value;
+        Preconditions.checkArgument(node.indexOf(':') > 0, "Permission node %s has no namespace", node);
+        if (scope == Scope.USER) UUID.fromString(target); // Rejects a target which is not a UUID
+    }
+
+    /**
+     * Create an edit setting the value of the given node.
+     *
+     * @param scope  The permissions to edit
+     * @param target The group name or user UUID, or an empty string for the global permissions
+     * @param node   The node, as {@code namespace:path}, {@code namespace:prefix.*} or {@code namespace:*}
+     * @param value  The new value of the node
+     *
+     * @return The edit
+     *
+     * @throws IllegalArgumentException If the node has no namespace, the target of a user edit is not a UUID, or the value
+     *                                  is empty
+     */
+    public static PermissionEdit set(Scope scope, String target, String node, IPermissionValue value) {
+        Preconditions.checkArgument(!value.isEmpty(), "Value must not be empty");
+        return new PermissionEdit(scope, target, node, value);
+    }
+
+    /**
+     * Create an edit removing the value of the given node.
+     *
+     * @param scope  The permissions to edit
+     * @param target The group name or user UUID, or an empty string for the global permissions
+     * @param node   The node, as {@code namespace:path}, {@code namespace:prefix.*} or {@code namespace:*}
+     *
+     * @return The edit
+     *
+     * @throws IllegalArgumentException If the node has no namespace, or the target of a user edit is not a UUID
+     */
+    public static PermissionEdit unset(Scope scope, String target, String node) {
+        return new PermissionEdit(scope, target, node, null);
+    }
+
+    public Scope getScope() {
+        return scope;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    /**
+     * Return the new value of the node, or {@code null} if this edit removes the value.
+     *
+     * @return The new value, or {@code null} if the value is removed
+     */
+    @Nullable
+    public IPermissionValue getValue() {
+        return value;
+    }
+
+    /**
+     * Apply this edit to the given snapshot.
+     *
+     * @param snapshot The snapshot to edit
+     *
+     * @return The edited snapshot, with the next version
+     *
+     * @throws IllegalArgumentException If the node is not a valid permission node
+     */
+    public PermissionSnapshot applyTo(PermissionSnapshot snapshot) {
+        final GroupIndex groups = snapshot.getGroups();
+        switch (scope) {
+            case GLOBAL:
+                return snapshot.withGroups(groups.withGlobal(edit(groups.getGlobal())));
+            case GROUP: {
+                final Group group = groups.getGroup(target);
+                return snapshot.withGroups(groups.withGroup(group != null
+                    ? new Group(target, group.getParents(), edit(group.getPermissions()))
+                    : new Group(target, Collections.emptyList(), edit(NodeIndex.EMPTY))));
+            }
+            default: {
+                final UUID id = UUID.fromString(target);
+                final PermissionUser user = groups.getUser(id);
+                return snapshot.withGroups(groups.withUser(user != null
+                    ? new PermissionUser(id, user.getGroups(), edit(user.getPermissions()))
+                    : new PermissionUser(id, Collections.emptyList(), edit(NodeIndex.EMPTY))));
+            }
+        }
+    }
+
+    private NodeIndex edit(NodeIndex index) {
+        final NodeIndex.Builder builder = index.toBuilder();
+        if (value != null) {
+            Preconditions.checkArgument(builder.put(node, value), "Invalid permission node %s", node);
+        } else {
+            builder.remove(node);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Apply this edit to the given source config, without modifying it. Only the tables along the path to the edited value
+     * are copied; all other values are shared with the given config.
+     *
+     * @param config The source config
+     *
+     * @return The edited config, or the given config for user edits
+     *
+     * @throws IllegalArgumentException If a value which is not a table lies on the path to the edited value
+     */
+    public CommentedConfig applyTo(CommentedConfig config) {
+        final List<String> path;
+        switch (scope) {
+            case GLOBAL:
+                path = NodeIndex.toConfigPath(node);
+                break;
+            case GROUP:
+                path = new ArrayList<>(ImmutableList.of(GROUPS_SECTION, target, "permissions"));
+                path.addAll(NodeIndex.toConfigPath(node));
+                break;
+            default:
+                return config;
+        }
+        return with(config, path, 0, value != null ? SocketPermissionHandler.unwrapValue(value) : null);
+    }
+
+    private static CommentedConfig with(UnmodifiableConfig config, List<String> path, int depth, @Nullable Object value) {
+        final CommentedConfig copy = CommentedConfig.copy(config);
+        final List<String> key = Collections.singletonList(path.get(depth));
+        if (depth == path.size() - 1) {
+            if (value != null) {
+                copy.set(key, value);
+            } else {
+                copy.remove(key);
+            }
+            return copy;
+        }
+        final Object child = config.get(key);
+        if (child instanceof UnmodifiableConfig) {
+            copy.set(key, with((UnmodifiableConfig) child, path, depth + 1, value));
+        } else if (value != null) {
+            Preconditions.checkArgument(child == null, "Cannot set %s under the config value at %s", path,
+                path.subList(0, depth + 1));
+            copy.set(key, with(copy.createSubConfig(), path, depth + 1, value));
+        }
+        return copy;
+    }
+
+    /**
+     * Write this edit to the given output.
+     *
+     * @param out The output to write to
+     *
+     * @throws IOException If the edit could not be written
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(scope.ordinal());
+        out.writeUTF(target);
+        out.writeUTF(node);
+        final Object raw = value != null ? SocketPermissionHandler.unwrapValue(value) : null;
+        if (raw instanceof Boolean) {
+            out.writeByte(VALUE_BOOLEAN);
+            out.writeBoolean((Boolean) raw);
+        } else if (raw instanceof Long) {
+            out.writeByte(VALUE_LONG);
+            out.writeLong((Long) raw);
+        } else if (raw instanceof Double) {
+            out.writeByte(VALUE_DOUBLE);
+            out.writeDouble((Double) raw);
+        } else {
+            out.writeByte(VALUE_NONE);
+        }
+    }
+
+    /**
+     * Read an edit written by {@link #write(DataOutput)} from the given input.
+     *
+     * @param in The input to read from
+     *
+     * @return The edit
+     *
+     * @throws IOException If the edit could not be read or is malformed
+     */
+    public static PermissionEdit read(DataInput in) throws IOException {
+        final int scope = in.readUnsignedByte();
+        if (scope >= Scope.values().length) throw new IOException("Unknown permission edit scope " + scope);
+        final String target = in.readUTF();
+        final String node = in.readUTF();
+        final byte valueType = in.readByte();
+        final Object raw;
+        switch (valueType) {
+            case VALUE_NONE:
+                raw = null;
+                break;
+            case VALUE_BOOLEAN:
+                raw = in.readBoolean();
+                break;
+            case VALUE_LONG:
+                raw = in.readLong();
+                break;
+            case VALUE_DOUBLE:
+                raw = in.readDouble();
+                break;
+            default:
+                throw new IOException("Unknown permission edit value type " + valueType);
+        }
+        try {
+            return new PermissionEdit(Scope.values()[scope], target, node,
+                raw != null ? SocketPermissionHandler.wrapValue(raw) : null);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed permission edit", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PermissionEdit[" + scope + (target.isEmpty() ? "" : " " + target) + ", " + node + "=" + value + "]";
+    }
+}
@@ -0,0 +1,411 @@
+package dev.socketmods.socketperms;
+
+import com.electronwill.nightconfig.core.CommentedConfig;
+import com.electronwill.nightconfig.core.io.ParsingException;
+import com.electronwill.nightconfig.toml.TomlFormat;
+import com.electronwill.nightconfig.toml.TomlParser;
+import com.electronwill.nightconfig.toml.TomlWriter;
+import com.google.common.base.Preconditions;
+import dev.socketmods.socketperms.groups.UserDirectory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * The TOML file which the permissions of a {@link SocketPermissionHandler} are loaded from.
+ * <p>
+ * The file is loaded once on server start, writing a default file if it does not exist. While {@linkplain #startWatching()
+ * watching}, a background thread listens for changes to the file through a {@link WatchService}; on a change, it parses and
+ * compiles the file into a new {@link PermissionSnapshot} off the server thread, then swaps it into the handler atomically.
+ * Changes arriving in quick succession (as editors often write a file in several steps) are coalesced into one reload.
+ * <p>
+ * If the file cannot be read or parsed, the error is logged and the previous permissions stay live.
+ * <p>
+ * Alongside the file, a {@link BinarySnapshot} is kept, which is written in the background after the file is parsed. On
+ * load, if the snapshot was written from the file as it is now (by a hash of its contents), the permissions are loaded
+ * from the mapped snapshot instead of parsing the file, and users are only decoded as they are looked up.
+ * <p>
+ * Runtime edits are not written to the file, but appended to a {@link PermissionJournal} beside it, which is replayed on
+ * top of the file whenever it is loaded. Once the journal grows past its threshold, it is compacted in the background by
+ * writing the current permissions to the file and the binary snapshot, and deleting the compacted journal segments. Changes
+ * to the file made by compaction are recognized by the watcher and not reloaded.
+ */
+public class PermissionFile {
+    private static final Logger LOGGER = LogManager.getLogger();
+    /**
+     * The time to wait for further changes to the file before reloading it.
+     */
+    private static final long DEBOUNCE_MILLIS = 250L;
+    /**
+     * The base name of the binary snapshot generation files, in the same directory as the file.
+     */
+    public static final String BINARY_FILE_NAME = "socketperms-permissions.bin";
+    /**
+     * The base name of the journal segment files, in the same directory as the file.
+     */
+    public static final String JOURNAL_FILE_NAME = "socketperms-permissions.journal";
+
+    private final Path path;
+    private final Path binaryPath;
+    private final SocketPermissionHandler handler;
+    private final PermissionJournal journal;
+    /**
+     * The executor writing binary snapshots and compacting the journal.
+     */
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "SocketPerms Permission Writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * The stamp of the file as last loaded or written, so that the watcher does not reload a file which is already live.
+     */
+    @Nullable
+    private volatile FileStamp loaded;
+    @Nullable
+    private WatchService watchService;
+    @Nullable
+    private Thread watchThread;
+
+    /**
+     * Constructs a new {@code PermissionFile}.
+     *
+     * @param path    The path of the permissions file
+     * @param handler The permission handler to load the permissions into
+     */
+    public PermissionFile(Path path, SocketPermissionHandler handler) {
+        this.path = Preconditions.checkNotNull(path, "Path must not be null").toAbsolutePath();
+        this.binaryPath = this.path.resolveSibling(BINARY_FILE_NAME);
+        this.handler = Preconditions.checkNotNull(handler, "Permission handler must not be null");
+        this.journal = new PermissionJournal(this.path.resolveSibling(JOURNAL_FILE_NAME), this::requestCompaction);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public Path getBinaryPath() {
+        return binaryPath;
+    }
+
+    /**
+     * Load the permissions from the file into the handler, writing the default permissions to the file first if it does not
+     * exist. If the binary snapshot is current with the file, the permissions are loaded from the snapshot instead. The
+     * edits of the journal are replayed on top.
+     *
+     * @throws IOException      If the file or the journal could not be read or written
+     * @throws ParsingException If the file is not valid TOML
+     */
+    public void load() throws IOException {
+        journal.open();
+        handler.setJournal(journal);
+        if (!Files.exists(path)) {
+            LOGGER.info("Writing default permissions file to {}", path);
+            write(createDefault());
+        }
+        final byte[] contents = Files.readAllBytes(path);
+        final FileStamp stamp = FileStamp.of(contents);
+
+        BinarySnapshot binary = null;
+        try {
+            binary = BinarySnapshot.read(binaryPath);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Failed to read binary permissions snapshot {}; loading from {}", binaryPath, path, e);
+        }
+        if (binary != null && binary.isCurrent(stamp.hash)) {
+            LOGGER.debug("Loading permissions from binary snapshot {}", binaryPath);
+            handler.apply(binary.getConfig(), PermissionSnapshot.compile(binary.getConfig(), binary.getUsers(), 0L));
+        } else {
+            final CommentedConfig config = parse(contents);
+            final PermissionSnapshot compiled = PermissionSnapshot.compile(config, 0L);
+            handler.apply(config, compiled);
+            writeBinary(config, compiled, stamp);
+        }
+        loaded = stamp;
+        journal.requestCompactionIfNeeded();
+    }
+
+    /**
+     * Stop watching the file and journaling edits, and finish writing any pending binary snapshot or compaction in the
+     * background.
+     */
+    public void close() {
+        stopWatching();
+        handler.setJournal(null);
+        journal.close();
+        writer.shutdown();
+    }
+
+    /**
+     * Start watching the file for changes on a background thread. Does nothing if the file is already being watched.
+     *
+     * @throws IOException If the watch service could not be created
+     */
+    public synchronized void startWatching() throws IOException {
+        if (watchThread != null) return;
+        final WatchService service = path.getFileSystem().newWatchService();
+        path.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watchService = service;
+        watchThread = new Thread(() -> watch(service), "SocketPerms Permission Watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    /**
+     * Stop watching the file for changes. Does nothing if the file is not being watched.
+     */
+    public synchronized void stopWatching() {
+        if (watchThread == null) return;
+        try {
+            if (watchService != null) watchService.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close the watch service of permissions file {}", path, e);
+        }
+        watchThread.interrupt();
+        watchThread = null;
+        watchService = null;
+    }
+
+    private void watch(WatchService service) {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                if (!isFileChanged(service.take())) continue;
+                // Coalesce the changes which follow shortly after
+                WatchKey next;
+                while ((next = service.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    isFileChanged(next);
+                }
+                if (!isLoaded()) reload();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped watching
+        }
+    }
+
+    /**
+     * Return {@code true} if any of the events of the given key is for the file, and reset the key.
+     */
+    private boolean isFileChanged(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || path.getFileName().equals(event.context())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * Return {@code true} if the file is unchanged since it was last loaded or written, otherwise {@code false}.
+     */
+    private boolean isLoaded() {
+        try {
+            return FileStamp.read(path).equals(loaded);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reload the permissions from the file, keeping the previous permissions if the file cannot be read or parsed.
+     */
+    private void reload() {
+        final long start = System.nanoTime();
+        final FileStamp stamp;
+        final CommentedConfig config;
+        final PermissionSnapshot compiled;
+        try {
+            final byte[] contents = Files.readAllBytes(path);
+            stamp = FileStamp.of(contents);
+            config = parse(contents);
+            compiled = PermissionSnapshot.compile(config, 0L);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Failed to reload permissions file {}; keeping the previous permissions", path, e);
+            return;
+        }
+        handler.apply(config, compiled);
+        loaded = stamp;
+        writeBinary(config, compiled, stamp);
+        LOGGER.info("Reloaded permissions file {} in {} ms", path, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Write the binary snapshot of the given config and its compiled snapshot in the background. The stamp is that of the
+     * contents the config was parsed from, so that the snapshot is stale as soon as the file changes.
+     */
+    private void writeBinary(CommentedConfig config, PermissionSnapshot compiled, FileStamp stamp) {
+        try {
+            writer.execute(() -> {
+                try {
+                    BinarySnapshot.write(binaryPath, config, compiled.getGroups().getUsers(), stamp.hash);
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.warn("Failed to write binary permissions snapshot {}", binaryPath, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Closed
+        }
+    }
+
+    private void requestCompaction() {
+        try {
+            writer.execute(this::compact);
+        } catch (RejectedExecutionException e) {
+            journal.compactionFailed();
+        }
+    }
+
+    /**
+     * Compact the journal: write the permissions as of a rollover of the journal to the file and the binary snapshot, then
+     * delete the journal segments before the rollover. Postponed if the file was changed on disk and not yet reloaded, so
+     * that the change is not overwritten; the file is checked again right before it is replaced, as it may be changed while
+     * the permissions are gathered and written.
+     */
+    private void compact() {
+        final long start = System.nanoTime();
+        try {
+            final FileStamp expected = FileStamp.read(path);
+            if (!expected.equals(loaded)) {
+                postponeCompaction();
+                return;
+            }
+            final Checkpoint checkpoint = handler.checkpoint((config, snapshot) ->
+                new Checkpoint(config, snapshot.getGroups().getUsers(), journal.rotate()));
+            final long lastSegment = checkpoint.rotation.join();
+
+            final CommentedConfig config = CommentedConfig.copy(checkpoint.config);
+            final CommentedConfig usersTable = config.createSubConfig();
+            checkpoint.users.forEach(user -> {
+                final CommentedConfig userTable = usersTable.createSubConfig();
+                user.writeTo(userTable);
+                usersTable.set(Collections.singletonList(user.getId().toString()), userTable);
+            });
+            config.set(Collections.singletonList(SocketPermissionHandler.USERS_SECTION), usersTable);
+            if (!write(config, expected)) {
+                postponeCompaction();
+                return;
+            }
+            final FileStamp stamp = FileStamp.read(path);
+            loaded = stamp;
+            BinarySnapshot.write(binaryPath, config, checkpoint.users, stamp.hash);
+            journal.compacted(lastSegment);
+            LOGGER.info("Compacted the permission journal into {} in {} ms", path,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Failed to compact the permission journal into {}", path, e);
+            journal.compactionFailed();
+        }
+    }
+
+    private void postponeCompaction() {
+        LOGGER.info("Postponing compaction of the permission journal until {} is reloaded", path);
+        journal.compactionFailed();
+    }
+
+    private static CommentedConfig parse(byte[] contents) {
+        return new TomlParser().parse(new String(contents, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write the given config to the file, through a temporary file which is moved over the file so that readers never see
+     * a partially written file.
+     */
+    private void write(CommentedConfig config) throws IOException {
+        write(config, null);
+    }
+
+    /**
+     * Write the given config to the file as by {@link #write(CommentedConfig)}, unless the file no longer has the given
+     * stamp right before it is replaced.
+     *
+     * @return {@code true} if the file was written, or {@code false} if it was changed
+     */
+    private boolean write(CommentedConfig config, @Nullable FileStamp expected) throws IOException {
+        Files.createDirectories(path.getParent());
+        final Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            new TomlWriter().write(config, writer);
+        }
+        if (expected != null && !expected.equals(FileStamp.read(path))) {
+            Files.delete(temp);
+            return false;
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return true;
+    }
+
+    private static CommentedConfig createDefault() {
+        final CommentedConfig config = TomlFormat.newConfig();
+        config.set("socketperms.command", true);
+        config.set("socketperms.interact.entity", 1.0d);
+        config.set("socketperms.interact.block", 2L);
+        return config;
+    }
+
+    /**
+     * The permissions to compact, as of a rollover of the journal.
+     */
+    private static final class Checkpoint {
+        final CommentedConfig config;
+        final UserDirectory users;
+        final CompletableFuture<Long> rotation;
+
+        Checkpoint(CommentedConfig config, UserDirectory users, CompletableFuture<Long> rotation) {
+            this.config = config;
+            this.users = users;
+            this.rotation = rotation;
+        }
+    }
+
+    /**
+     * The hash of the contents of a file, which identifies a version of the file. Unlike the modification time and size,
+     * it tells apart edits which keep the size within the resolution of the modification time.
+     */
+    private static final class FileStamp {
+        final byte[] hash;
+
+        private FileStamp(byte[] hash) {
+            this.hash = hash;
+        }
+
+        static FileStamp of(byte[] contents) {
+            return new FileStamp(BinarySnapshot.hash(contents));
+        }
+
+        static FileStamp read(Path path) throws IOException {
+            return of(Files.readAllBytes(path));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            return Arrays.equals(hash, ((FileStamp) o).hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(hash);
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package dev.socketmods.socketperms;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import javax.annotation.Nullable;
+
+/**
+ * An append-only journal of the runtime {@linkplain PermissionEdit edits} of the permissions, so that an edit is durable
+ * without rewriting the whole permissions file.
+ * <p>
+ * The journal is a sequence of numbered segment files beside the permissions file. Edits are queued to a dedicated writer
+ * thread, which drains all queued edits, writes them to the current segment together, and forces them to disk with a single
+ * {@code fsync}; the future returned by {@link #append(PermissionEdit)} completes once the edit is durable. Each record is
+ * framed by its length and a CRC-32 checksum, so a record torn by a crash is detected and discarded on replay.
+ * <p>
+ * On load, the edits of all segments are replayed on top of the permissions read from the file. Once the segments grow past
+ * {@value #COMPACT_THRESHOLD} bytes, the compactor is requested to fold them back into the file: it {@linkplain #rotate()
+ * rolls the journal over} to a new segment, writes the permissions as of the rollover, and then {@linkplain #compacted(long)
+ * deletes} the segments before it. This bounds the number of edits to replay. Applying an edit is idempotent, so a crash
+ * during compaction at worst replays edits which are already in the file.
+ * <p>
+ * This class is thread-safe. Edits should be appended and the journal rotated while holding the lock of the permission
+ * handler, so that the order of the journal matches the order in which the edits are applied.
+ */
+public class PermissionJournal {
+    private static final Logger LOGGER = LogManager.getLogger();
+    /**
+     * The total size in bytes of the uncompacted segments above which compaction is requested.
+     */
+    public static final long COMPACT_THRESHOLD = 256L * 1024L;
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 1 << 18;
+    private static final int MAX_BATCH_SIZE = 1024;
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000L;
+
+    private final Path directory;
+    private final String prefix;
+    private final Runnable compactor;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    /**
+     * The edits of each segment which has not been compacted, by segment number.
+     */
+    private final NavigableMap<Long, Segment> segments = new TreeMap<>();
+    private long current;
+    private long uncompactedBytes;
+    private long nextCompaction = COMPACT_THRESHOLD;
+    private boolean compacting;
+    @Nullable
+    private Thread writerThread;
+
+    /**
+     * The open segment file, and its number. Only accessed by the writer thread.
+     */
+    @Nullable
+    private FileChannel channel;
+    private long channelSegment;
+
+    /**
+     * Constructs a new {@code PermissionJournal}.
+     *
+     * @param path      The base path of the journal; segments are named after it, with the segment number appended
+     * @param compactor The action requesting compaction, which must not run the compaction on the calling thread
+     */
+    public PermissionJournal(Path path, Runnable compactor) {
+        final Path absolute = Preconditions.checkNotNull(path, "Path must not be null").toAbsolutePath();
+        this.directory = absolute.getParent();
+        this.prefix = absolute.getFileName() + ".";
+        this.compactor = Preconditions.checkNotNull(compactor, "Compactor must not be null");
+    }
+
+    /**
+     * Read the edits of all existing segments, discarding torn or corrupt records, and start the writer thread on a new
+     * segment. Does nothing if the journal is already open.
+     *
+     * @throws IOException If the segments could not be read
+     */
+    public synchronized void open() throws IOException {
+        if (writerThread != null) return;
+        final List<Long> numbers = listSegments();
+        int edits = 0;
+        for (long number : numbers) {
+            final Segment segment = readSegment(segmentPath(number));
+            segments.put(number, segment);
+            uncompactedBytes += segment.bytes;
+            edits += segment.edits.size();
+        }
+        if (edits > 0) LOGGER.info("Replaying {} permission edits from {} journal segments", edits, numbers.size());
+        current = numbers.isEmpty() ? 1L : numbers.get(numbers.size() - 1) + 1L;
+        segments.put(current, new Segment());
+
+        writerThread = new Thread(this::runWriter, "SocketPerms Journal Writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Append the given edit to the journal, and request compaction if the journal has grown past the threshold.
+     *
+     * @param edit The edit to append
+     *
+     * @return A future which completes once the edit is durable, or completes exceptionally if it could not be written
+     *
+     * @throws IllegalStateException If the journal is not open
+     */
+    public synchronized CompletableFuture<Void> append(PermissionEdit edit) {
+        Preconditions.checkState(writerThread != null, "Journal is not open");
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try {
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(0L); // Header, filled in below
+            edit.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        final byte[] record = bytes.toByteArray();
+        final CRC32 checksum = new CRC32();
+        checksum.update(record, HEADER_SIZE, record.length - HEADER_SIZE);
+        ByteBuffer.wrap(record).putInt(0, record.length - HEADER_SIZE).putInt(4, (int) checksum.getValue());
+
+        final Segment segment = segments.get(current);
+        segment.edits.add(edit);
+        segment.bytes += record.length;
+        uncompactedBytes += record.length;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        queue.add(new Request(Request.Kind.RECORD, current, ByteBuffer.wrap(record), future));
+        requestCompactionIfNeeded();
+        return future;
+    }
+
+    /**
+     * Return the edits of all segments which have not been compacted, in the order they were appended.
+     *
+     * @return The uncompacted edits
+     */
+    public synchronized List<PermissionEdit> getPendingEdits() {
+        final ImmutableList.Builder<PermissionEdit> edits = ImmutableList.builder();
+        for (Segment segment : segments.values()) {
+            edits.addAll(segment.edits);
+        }
+        return edits.build();
+    }
+
+    /**
+     * Request compaction if the uncompacted segments have grown past the threshold, and compaction is not already in
+     * progress.
+     */
+    public synchronized void requestCompactionIfNeeded() {
+        if (compacting || writerThread == null || uncompactedBytes < nextCompaction) return;
+        compacting = true;
+        compactor.run();
+    }
+
+    /**
+     * Roll the journal over to a new segment, so that the edits appended from now on are kept apart from the edits before.
+     * This should be called atomically with reading the permissions to compact.
+     *
+     * @return A future which completes with the number of the last segment before the new one once it is closed
+     */
+    public synchronized CompletableFuture<Long> rotate() {
+        final long previous = current;
+        current++;
+        segments.put(current, new Segment());
+        final CompletableFuture<Void> closed = new CompletableFuture<>();
+        queue.add(new Request(Request.Kind.ROTATE, current, null, closed));
+        return closed.thenApply(v -> previous);
+    }
+
+    /**
+     * Delete the segments up to and including the given segment, after their edits were written to the permissions file.
+     *
+     * @param lastSegment The number of the last compacted segment, as returned by {@link #rotate()}
+     */
+    public void compacted(long lastSegment) {
+        final List<Long> compacted;
+        synchronized (this) {
+            final NavigableMap<Long, Segment> head = segments.headMap(lastSegment, true);
+            for (Segment segment : head.values()) {
+                uncompactedBytes -= segment.bytes;
+            }
+            compacted = new ArrayList<>(head.keySet());
+            head.clear();
+            nextCompaction = COMPACT_THRESHOLD;
+            compacting = false;
+        }
+        for (long number : compacted) {
+            try {
+                Files.deleteIfExists(segmentPath(number));
+            } catch (IOException e) {
+                LOGGER.warn("Failed to delete compacted permission journal segment {}", segmentPath(number), e);
+            }
+        }
+    }
+
+    /**
+     * Record that compaction failed or was postponed, keeping all segments. Compaction is requested again once the journal
+     * has grown by another threshold.
+     */
+    public synchronized void compactionFailed() {
+        nextCompaction = uncompactedBytes + COMPACT_THRESHOLD;
+        compacting = false;
+    }
+
+    /**
+     * Stop the writer thread once all queued edits are written. Does nothing if the journal is not open.
+     */
+    public void close() {
+        final Thread thread;
+        synchronized (this) {
+            thread = writerThread;
+            if (thread == null) return;
+            writerThread = null;
+            queue.add(new Request(Request.Kind.CLOSE, current, null, new CompletableFuture<>()));
+        }
+        try {
+            thread.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runWriter() {
+        final List<Request> batch = new ArrayList<>();
+        final List<CompletableFuture<Void>> written = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                boolean closed = false;
+                try {
+                    for (Request request : batch) {
+                        switch (request.kind) {
+                            case RECORD:
+                                if (channel == null || channelSegment != request.segment) {
+                                    sync(written);
+                                    closeChannel();
+                                    channel = FileChannel.open(segmentPath(request.segment), StandardOpenOption.CREATE,
+                                        StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                                    channelSegment = request.segment;
+                                }
+                                final ByteBuffer data = request.data;
+                                while (data.hasRemaining()) {
+                                    channel.write(data);
+                                }
+                                written.add(request.future);
+                                break;
+                            case ROTATE:
+                                sync(written);
+                                closeChannel();
+                                request.future.complete(null);
+                                break;
+                            case CLOSE:
+                                closed = true;
+                                break;
+                        }
+                    }
+                    sync(written);
+                } catch (IOException e) {
+                    LOGGER.error("Failed to write to the permission journal", e);
+                    closeChannel();
+                    for (Request request : batch) {
+                        request.future.completeExceptionally(e);
+                    }
+                    written.clear();
+                }
+                if (closed) {
+                    closeChannel();
+                    return;
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            closeChannel();
+        }
+    }
+
+    /**
+     * Force the written records to disk, and complete their futures.
+     */
+    private void sync(List<CompletableFuture<Void>> written) throws IOException {
+        if (written.isEmpty()) return;
+        if (channel != null) channel.force(false);
+        for (CompletableFuture<Void> future : written) {
+            future.complete(null);
+        }
+        written.clear();
+    }
+
+    private void closeChannel() {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close permission journal segment {}", segmentPath(channelSegment), e);
+        }
+        channel = null;
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(prefix + number);
+    }
+
+    private List<Long> listSegments() throws IOException {
+        final List<Long> numbers = new ArrayList<>();
+        if (!Files.isDirectory(directory)) return numbers;
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                final String name = file.getFileName().toString();
+                if (!name.startsWith(prefix)) return;
+                try {
+                    numbers.add(Long.parseLong(name.substring(prefix.length())));
+                } catch (NumberFormatException e) {
+                    // Not a segment
+                }
+            });
+        }
+        numbers.sort(null);
+        return numbers;
+    }
+
+    /**
+     * Read the edits of the segment at the given path, truncating it after the last valid record.
+     */
+    private static Segment readSegment(Path path) throws IOException {
+        final Segment segment = new Segment();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final long size = channel.size();
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            while (segment.bytes < size) {
+                final int length = readRecord(in, segment.edits);
+                if (length < 0) {
+                    LOGGER.warn("Discarding {} bytes of permission journal segment {} after a torn or corrupt record at {}",
+                        size - segment.bytes, path, segment.bytes);
+                    channel.truncate(segment.bytes);
+                    break;
+                }
+                segment.bytes += HEADER_SIZE + length;
+            }
+        }
+        return segment;
+    }
+
+    /**
+     * Read a record into the given list of edits, and return the length of its payload, or {@code -1} if the record is
+     * torn or corrupt.
+     */
+    private static int readRecord(DataInputStream in, List<PermissionEdit> edits) throws IOException {
+        final byte[] payload;
+        final int checksum;
+        try {
+            final int length = in.readInt();
+            checksum = in.readInt();
+            if (length < 0 || length > MAX_RECORD_SIZE) return -1;
+            payload = new byte[length];
+            in.readFully(payload);
+        } catch (EOFException e) {
+            return -1;
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        if ((int) crc.getValue() != checksum) return -1;
+        try {
+            edits.add(PermissionEdit.read(new DataInputStream(new ByteArrayInputStream(payload))));
+        } catch (IOException e) {
+            return -1;
+        }
+        return payload.length;
+    }
+
+    private static final class Segment {
+        final List<PermissionEdit> edits = new ArrayList<>();
+        long bytes;
+    }
+
+    private static final class Request {
+        enum Kind {
+            RECORD, ROTATE, CLOSE
+        }
+
+        final Kind kind;
+        final long segment;
+        @Nullable
+        final ByteBuffer data;
+        final CompletableFuture<Void> future;
+
+        Request(Kind kind, long segment, @Nullable ByteBuffer data, CompletableFuture<Void> future) {
+            this.kind = kind;
+            this.segment = segment;
+            this.data = data;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package dev.socketmods.socketperms;
+
+import com.electronwill.nightconfig.core.UnmodifiableConfig;
+import com.google.common.base.Preconditions;
+import dev.socketmods.socketperms.groups.Aggregation;
+import dev.socketmods.socketperms.groups.Group;
+import dev.socketmods.socketperms.groups.GroupIndex;
+import dev.socketmods.socketperms.groups.UserDirectory;
+import dev.socketmods.socketperms.regions.Region;
+import dev.socketmods.socketperms.regions.RegionIndex;
+import dev.socketmods.socketperms.rules.RuleSet;
+import net.minecraft.util.ResourceLocation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static dev.socketmods.socketperms.SocketPermissionHandler.AGGREGATION_SECTION;
+import static dev.socketmods.socketperms.SocketPermissionHandler.GROUPS_SECTION;
+import static dev.socketmods.socketperms.SocketPermissionHandler.REGIONS_SECTION;
+import static dev.socketmods.socketperms.SocketPermissionHandler.RULES_SECTION;
+import static dev.socketmods.socketperms.SocketPermissionHandler.USERS_SECTION;
+
+/**
+ * An immutable snapshot of all compiled permission state: the groups and users (with the global permissions), the rules,
+ * and the regions.
+ * <p>
+ * The permission handler publishes the current snapshot through a single {@code volatile} reference. Queries read the
+ * reference once and resolve everything against that snapshot, so resolution never locks and never observes a partially
+ * applied edit. Edits build a new snapshot from the current one, through the {@code with} methods, and swap it in
+ * atomically.
+ * <p>
+ * Each snapshot has a version, which is incremented by every edit.
+ * <p>
+ * This class is immutable and thread-safe to access.
+ */
+public final class PermissionSnapshot {
+    /**
+     * An empty snapshot, with no permissions.
+     */
+    public static final PermissionSnapshot EMPTY = new PermissionSnapshot(GroupIndex.EMPTY, RuleSet.EMPTY, RegionIndex.EMPTY,
+        0L);
+
+    private final GroupIndex groups;
+    private final RuleSet rules;
+    private final RegionIndex regions;
+    private final long version;
+
+    private PermissionSnapshot(GroupIndex groups, RuleSet rules, RegionIndex regions, long version) {
+        this.groups = Preconditions.checkNotNull(groups, "Groups must not be null");
+        this.rules = Preconditions.checkNotNull(rules, "Rules must not be null");
+        this.regions = Preconditions.checkNotNull(regions, "Regions must not be null");
+        this.version = version;
+    }
+
+    public GroupIndex getGroups() {
+        return groups;
+    }
+
+    public RuleSet getRules() {
+        return rules;
+    }
+
+    public RegionIndex getRegions() {
+        return regions;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Return a new snapshot with the given group index, and the next version.
+     *
+     * @param groups The new group index
+     *
+     * @return The new snapshot
+     */
+    public PermissionSnapshot withGroups(GroupIndex groups) {
+        return new PermissionSnapshot(groups, rules, regions, version + 1);
+    }
+
+    /**
+     * Return a new snapshot with the given rule set, and the next version.
+     *
+     * @param rules The new rule set
+     *
+     * @return The new snapshot
+     */
+    public PermissionSnapshot withRules(RuleSet rules) {
+        return new PermissionSnapshot(groups, rules, regions, version + 1);
+    }
+
+    /**
+     * Return a new snapshot with the given region index, and the next version.
+     *
+     * @param regions The new region index
+     *
+     * @return The new snapshot
+     */
+    public PermissionSnapshot withRegions(RegionIndex regions) {
+        return new PermissionSnapshot(groups, rules, regions, version + 1);
+    }
+
+    /**
+     * Return a new snapshot with the same contents and the given version.
+     *
+     * @param version The version of the new snapshot
+     *
+     * @return The new snapshot
+     */
+    public PermissionSnapshot withVersion(long version) {
+        return new PermissionSnapshot(groups, rules, regions, version);
+    }
+
+    @Override
+    public String toString() {
+        return "PermissionSnapshot[version=" + version + ", " + groups + ", rules=" + rules.size() + ", regions="
+            + regions.size() + "]";
+    }
+
+    /**
+     * Compile the given permissions config, including its users section, into a snapshot with the given version.
+     * <p>
+     * The config is only read during compilation, and is not referenced by the snapshot.
+     *
+     * @param config  The permissions config
+     * @param version The version of the snapshot
+     *
+     * @return The compiled snapshot
+     */
+    public static PermissionSnapshot compile(UnmodifiableConfig config, long version) {
+        final Object usersSection = config.get(USERS_SECTION);
+        return compile(config, usersSection instanceof UnmodifiableConfig
+            ? UserDirectory.fromConfig((UnmodifiableConfig) usersSection) : UserDirectory.EMPTY, version);
+    }
+
+    /**
+     * Compile the given permissions config into a snapshot with the given version, with the given users in place of the
+     * users section of the config.
+     * <p>
+     * The config is only read during compilation, and is not referenced by the snapshot.
+     *
+     * @param config  The permissions config
+     * @param users   The users
+     * @param version The version of the snapshot
+     *
+     * @return The compiled snapshot
+     */
+    public static PermissionSnapshot compile(UnmodifiableConfig config, UserDirectory users, long version) {
+        final NodeIndex index = NodeIndex.compile(config);
+
+        final Object rulesSection = config.get(RULES_SECTION);
+        final RuleSet rules = rulesSection instanceof List ? RuleSet.compile((List<?>) rulesSection) : RuleSet.EMPTY;
+
+        final List<Region> regions = new ArrayList<>();
+        final Object regionsSection = config.get(REGIONS_SECTION);
+        if (regionsSection instanceof List) {
+            final List<?> tables = (List<?>) regionsSection;
+            for (int i = 0; i < tables.size(); i++) {
+                final Object table = tables.get(i);
+                if (!(table instanceof UnmodifiableConfig)) continue;
+                final Region region = Region.fromConfig(i, (UnmodifiableConfig) table);
+                if (region != null) regions.add(region);
+            }
+        }
+
+        final List<Group> groups = new ArrayList<>();
+        final Object groupsSection = config.get(GROUPS_SECTION);
+        if (groupsSection instanceof UnmodifiableConfig) {
+            for (UnmodifiableConfig.Entry entry : ((UnmodifiableConfig) groupsSection).entrySet()) {
+                if (!(entry.getValue() instanceof UnmodifiableConfig)) continue;
+                final Group group = Group.fromConfig(entry.getKey(), entry.getValue());
+                if (group != null) groups.add(group);
+            }
+        }
+        final Object aggregationSection = config.get(AGGREGATION_SECTION);
+        final Map<ResourceLocation, Aggregation> aggregations = aggregationSection instanceof UnmodifiableConfig
+            ? Aggregation.compile((UnmodifiableConfig) aggregationSection) : Collections.emptyMap();
+
+        return new PermissionSnapshot(GroupIndex.compile(index, aggregations, groups, users), rules,
+            RegionIndex.of(regions), version);
+    }
+}
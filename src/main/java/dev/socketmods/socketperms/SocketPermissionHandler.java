@@ -1,73 +1,695 @@
 package dev.socketmods.socketperms;
 
 import com.electronwill.nightconfig.core.CommentedConfig;
-import com.electronwill.nightconfig.core.UnmodifiableConfig;
 import com.electronwill.nightconfig.toml.TomlFormat;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import com.mojang.authlib.GameProfile;
 import dev.socketmods.socketperms.api.IPermissionHandler;
 import dev.socketmods.socketperms.api.IPermissionValue;
 import dev.socketmods.socketperms.api.OptionalBoolean;
-import dev.socketmods.socketperms.api.PermissionAPI;
+import dev.socketmods.socketperms.api.PermissionNode;
+import dev.socketmods.socketperms.api.context.ContextKey;
 import dev.socketmods.socketperms.api.context.PermissionContext;
+import dev.socketmods.socketperms.api.context.StandardContextKeys;
+import dev.socketmods.socketperms.groups.Aggregation;
+import dev.socketmods.socketperms.groups.Group;
+import dev.socketmods.socketperms.groups.GroupIndex;
+import dev.socketmods.socketperms.groups.PermissionUser;
+import dev.socketmods.socketperms.regions.Region;
+import dev.socketmods.socketperms.regions.RegionIndex;
+import dev.socketmods.socketperms.rules.RuleSet;
+import dev.socketmods.socketperms.rules.RuleTree;
+import dev.socketmods.socketperms.storage.StorageWorker;
+import dev.socketmods.socketperms.values.BooleanPermissionValue;
+import dev.socketmods.socketperms.values.DoublePermissionValue;
+import dev.socketmods.socketperms.values.LongPermissionValue;
 import dev.socketmods.socketperms.values.PermissionValue;
 import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.util.math.vector.Vector3d;
+import net.minecraft.world.World;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.OptionalDouble;
 import java.util.OptionalInt;
 import java.util.OptionalLong;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
 import javax.annotation.Nullable;
 
+/**
+ * The SocketPerms implementation of a permission handler.
+ * <p>
+ * Permissions are held in a config as the source format, loaded from a {@link PermissionFile}, and compiled into an
+ * immutable {@link PermissionSnapshot} which serves all queries. The current snapshot is published through a single {@code
+ * volatile} reference; queries read it once and never take the lock of the handler, and edits build a new snapshot under
+ * that lock and swap it in. Resolution against the snapshot is read-only, and the {@link UserPermissionCache} in front of
+ * it is lock-free on hits, so queries are safe to make from any thread and never observe a partially applied edit. Only
+ * adding a user to the cache may briefly contend, on a bin of its concurrent map.
+ * <p>
+ * The top-level namespaces of the config are the global permissions. Groups and users are declared in the {@code groups}
+ * and {@code users} sections, and held in a {@link GroupIndex} where the inherited permissions of every group are flattened
+ * ahead of time; a context-independent query is a probe into the overrides of the user, then a probe into the flattened
+ * permissions of their groups. Numeric nodes may declare an {@link Aggregation} policy in the {@code aggregation} section,
+ * which is applied across the groups of a user when their permissions are flattened.
+ * <p>
+ * Context-dependent grants are held in a {@link RegionIndex} of position-scoped regions and a {@link RuleSet} of rules. For
+ * each query, the region with the highest precedence containing the target block position (or else the position) from the
+ * context is consulted first, then the rules of the node; if neither yields a value, the value from the index is used.
+ * Region and rule values therefore take precedence over the values of users and groups, including the overrides of a user.
+ * A region may list {@linkplain Region#getExemptGroups() exempt groups}, whose users are not affected by it.
+ * <p>
+ * Runtime {@linkplain #edit(PermissionEdit) edits} are applied incrementally to both the config and the snapshot, and are
+ * appended to the {@link PermissionJournal}, if one is set, rather than written to the permissions file. Users are held only
+ * in the snapshot, so recompiling the config keeps the users of the current snapshot.
+ * <p>
+ * If a {@link StorageWorker} is set, users are instead loaded from the storage into the snapshot as they are
+ * {@linkplain #loadUser(UUID) requested}, and user edits are written to the storage rather than the journal. Users are
+ * prefetched when they {@linkplain #userLoggedIn(UUID) log in}, and users who are offline are {@linkplain
+ * #evictIdleUsers() evicted} again once idle for longer than the {@linkplain #setIdleEviction(long, TimeUnit) idle period},
+ * so that the snapshot holds the users who are online rather than every user who has ever joined.
+ */
 public class SocketPermissionHandler implements IPermissionHandler {
-    private final CommentedConfig permissions = TomlFormat.newConfig();
-    private final List<ResourceLocation> knownNodes = new ArrayList<>(100);
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final int CACHE_MAX_USERS = 512;
+    private static final int CACHE_MAX_NODES_PER_USER = 256;
+    private static final long DEFAULT_IDLE_EVICTION_MINUTES = 5L;
 
-    public SocketPermissionHandler() {
-        // FIXME: this is only for testing
+    /**
+     * The top-level config key of the rules section.
+     */
+    static final String RULES_SECTION = "rules";
+    /**
+     * The top-level config key of the regions section.
+     */
+    static final String REGIONS_SECTION = "regions";
+    /**
+     * The top-level config key of the groups section.
+     */
+    static final String GROUPS_SECTION = "groups";
+    /**
+     * The top-level config key of the users section.
+     */
+    static final String USERS_SECTION = "users";
+    /**
+     * The top-level config key of the aggregation section.
+     */
+    static final String AGGREGATION_SECTION = "aggregation";
+    /**
+     * The top-level config keys which are reserved for sections, and are not namespaces of permission nodes.
+     */
+    static final Set<String> RESERVED_SECTIONS = ImmutableSet.of(RULES_SECTION, REGIONS_SECTION, GROUPS_SECTION,
+        USERS_SECTION, AGGREGATION_SECTION);
 
-        permissions.set("socketperms.command", true);
-        permissions.set("socketperms.interact.entity", 1.0d);
-        permissions.set("socketperms.interact.block", 2L);
+    /**
+     * The source config of the permissions. Only accessed while holding the lock of this handler; the config is never
+     * modified in place, so it may be read outside of the lock once obtained.
+     */
+    private CommentedConfig permissions = TomlFormat.newConfig();
+    /**
+     * The journal which edits are appended to, if any. Only accessed while holding the lock of this handler.
+     */
+    @Nullable
+    private PermissionJournal journal;
+    /**
+     * The storage which users are loaded from and user edits are written to, if any. Only accessed while holding the lock
+     * of this handler.
+     */
+    @Nullable
+    private StorageWorker storage;
+    /**
+     * The users being loaded from the storage. Only accessed while holding the lock of this handler.
+     */
+    private final Map<UUID, UserLoad> loading = new HashMap<>();
+    /**
+     * The user edits written to the storage which are not yet durable, by user. A load started before they are durable
+     * may not see them, so they are replayed on top of the loaded user. Updated from the storage writer thread, so each
+     * list is only accessed within an atomic update of its mapping.
+     */
+    private final Map<UUID, List<PermissionEdit>> unsynced = new ConcurrentHashMap<>();
+    /**
+     * The users who are online. Only accessed while holding the lock of this handler.
+     */
+    private final Set<UUID> online = new HashSet<>();
+    /**
+     * The resident users who were loaded from the storage, rather than the permissions file. Only accessed while holding
+     * the lock of this handler.
+     */
+    private final Set<UUID> stored = new HashSet<>();
+    /**
+     * The users loaded from the storage who are offline, with the time from {@link System#nanoTime()} since which they
+     * have been idle. Only accessed while holding the lock of this handler.
+     */
+    private final Map<UUID, Long> idle = new HashMap<>();
+    private long idleEvictionNanos = TimeUnit.MINUTES.toNanos(DEFAULT_IDLE_EVICTION_MINUTES);
+    private final UserPermissionCache cache = new UserPermissionCache(CACHE_MAX_USERS, CACHE_MAX_NODES_PER_USER);
+    private volatile PermissionSnapshot snapshot = PermissionSnapshot.EMPTY;
+    private final KnownNodeRegistry knownNodes = new KnownNodeRegistry();
+
+    /**
+     * Recompile the permissions from the config, keeping the users of the current snapshot, and invalidate all cached values.
+     */
+    public synchronized void reload() {
+        publish(PermissionSnapshot.compile(permissions, snapshot.getGroups().getUsers(), snapshot.getVersion() + 1));
+    }
+
+    /**
+     * Replace the source config with the given config and publish the given snapshot compiled from it, and invalidate all
+     * cached values.
+     * <p>
+     * The snapshot is expected to be compiled by the caller beforehand, outside of the lock of this handler, so that queries
+     * and other edits are not held up by compilation. If a journal is set, its pending edits are replayed on top of the
+     * config and the snapshot. Users loaded from the storage are not in the config, so they are carried over from the
+     * current snapshot. The snapshot is published with the next version.
+     *
+     * @param config   The new source config
+     * @param compiled The snapshot compiled from the config
+     */
+    public synchronized void apply(CommentedConfig config, PermissionSnapshot compiled) {
+        CommentedConfig edited = config;
+        PermissionSnapshot editedSnapshot = compiled;
+        if (journal != null) {
+            for (PermissionEdit edit : journal.getPendingEdits()) {
+                try {
+                    editedSnapshot = edit.applyTo(editedSnapshot);
+                    edited = edit.applyTo(edited);
+                } catch (IllegalArgumentException e) {
+                    LOGGER.warn("Skipping journaled permission edit {} which no longer applies: {}", edit, e.getMessage());
+                }
+            }
+        }
+        if (!stored.isEmpty()) {
+            GroupIndex groups = editedSnapshot.getGroups();
+            for (UUID id : stored) {
+                final PermissionUser user = snapshot.getGroups().getUser(id);
+                if (user != null) groups = groups.withUser(user);
+            }
+            editedSnapshot = editedSnapshot.withGroups(groups);
+        }
+        permissions = edited;
+        publish(editedSnapshot.withVersion(snapshot.getVersion() + 1));
+    }
+
+    /**
+     * Apply the given edit to the config and the current snapshot, and invalidate the cached values it affects: those of
+     * the user for a user edit, otherwise all of them. If a journal is set, the edit is appended to it.
+     * <p>
+     * If a storage is set, user edits are written to the storage instead. The snapshot is only edited if the user is
+     * resident in it; an edit of a user who is being loaded is applied once the load completes, and an edit of any other
+     * user is only written to the storage. Until the edit is durable, it is also applied on top of any load of the user,
+     * which may read the storage before the edit is written.
+     *
+     * @param edit The edit to apply
+     *
+     * @return A future which completes once the edit is durable in the journal or the storage, or a completed future if
+     * there is neither
+     *
+     * @throws IllegalArgumentException If the edit cannot be applied to the current permissions
+     */
+    public synchronized CompletableFuture<Void> edit(PermissionEdit edit) {
+        final PermissionSnapshot edited = edit.applyTo(snapshot);
+        final UUID id = edit.getScope() == PermissionEdit.Scope.USER ? UUID.fromString(edit.getTarget()) : null;
+        if (storage != null && id != null) {
+            if (snapshot.getGroups().getUser(id) != null) {
+                publishUsers(edited, Collections.singleton(id));
+            } else {
+                final UserLoad load = loading.get(id);
+                if (load != null) load.edits.add(edit);
+            }
+            unsynced.compute(id, (key, edits) -> {
+                final List<PermissionEdit> updated = edits != null ? edits : new ArrayList<>();
+                updated.add(edit);
+                return updated;
+            });
+            final CompletableFuture<Void> written = storage.write(edit);
+            written.whenComplete((result, error) -> unsynced.computeIfPresent(id, (key, edits) -> {
+                edits.remove(edit);
+                return edits.isEmpty() ? null : edits;
+            }));
+            return written;
+        }
+        permissions = edit.applyTo(permissions);
+        if (id != null) {
+            publishUsers(edited, Collections.singleton(id));
+        } else {
+            publish(edited);
+        }
+        return journal != null ? journal.append(edit) : CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Set the journal which edits are appended to, or {@code null} to stop journaling edits.
+     *
+     * @param journal The journal, may be {@code null}
+     */
+    public synchronized void setJournal(@Nullable PermissionJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Set the storage which users are loaded from and user edits are written to, or {@code null} to stop using a storage.
+     * Loads in progress from a previous storage are discarded once they complete.
+     *
+     * @param storage The storage, may be {@code null}
+     */
+    public synchronized void setStorage(@Nullable StorageWorker storage) {
+        this.storage = storage;
+        loading.clear();
+        stored.clear();
+        idle.clear();
+    }
+
+    /**
+     * Set the time after which users loaded from the storage are evicted once they are offline.
+     *
+     * @param duration The idle period
+     * @param unit     The unit of the idle period
+     */
+    public synchronized void setIdleEviction(long duration, TimeUnit unit) {
+        idleEvictionNanos = unit.toNanos(duration);
+    }
+
+    /**
+     * Mark the user with the given UUID as online, and start loading them from the storage if they are not resident.
+     *
+     * @param id The UUID of the user
+     *
+     * @return A future which completes once the user is resident
+     */
+    public synchronized CompletableFuture<Void> userLoggedIn(UUID id) {
+        online.add(id);
+        idle.remove(id);
+        return loadUser(id);
+    }
+
+    /**
+     * Mark the user with the given UUID as offline. If they were loaded from the storage, they are evicted once idle for
+     * longer than the idle period.
+     *
+     * @param id The UUID of the user
+     */
+    public synchronized void userLoggedOut(UUID id) {
+        online.remove(id);
+        if (stored.contains(id)) idle.put(id, System.nanoTime());
+    }
+
+    /**
+     * Evict the users loaded from the storage who have been offline for longer than the idle period.
+     */
+    public synchronized void evictIdleUsers() {
+        final long now = System.nanoTime();
+        final List<UUID> evicted = new ArrayList<>();
+        for (Iterator<Map.Entry<UUID, Long>> it = idle.entrySet().iterator(); it.hasNext(); ) {
+            final Map.Entry<UUID, Long> entry = it.next();
+            if (now - entry.getValue() >= idleEvictionNanos) {
+                evicted.add(entry.getKey());
+                stored.remove(entry.getKey());
+                it.remove();
+            }
+        }
+        if (evicted.isEmpty()) return;
+        publishUsers(snapshot.withGroups(snapshot.getGroups().withoutUsers(evicted)), evicted);
+        LOGGER.debug("Evicted {} idle users", evicted.size());
+    }
+
+    /**
+     * Load the user with the given UUID from the storage into the snapshot, if a storage is set and the user is not already
+     * resident. Concurrent requests for the same user share a single load. A user with no data in the storage is added
+     * without groups or overrides, so that they are not loaded again.
+     *
+     * @param id The UUID of the user
+     *
+     * @return A future which completes once the user is resident, or a completed future if there is nothing to load
+     */
+    public synchronized CompletableFuture<Void> loadUser(UUID id) {
+        if (storage == null || snapshot.getGroups().getUser(id) != null) return CompletableFuture.completedFuture(null);
+        UserLoad load = loading.get(id);
+        if (load == null) {
+            final UserLoad started = new UserLoad();
+            // Edits written before the load but not yet durable may be missed by it; set and unset edits are idempotent,
+            // so replaying an edit which the load did see is harmless
+            unsynced.computeIfPresent(id, (key, edits) -> {
+                started.edits.addAll(edits);
+                return edits;
+            });
+            loading.put(id, started);
+            storage.load(id).whenComplete((user, error) -> finishLoad(id, started, user, error));
+            load = started;
+        }
+        return load.future;
     }
 
-    public List<ResourceLocation> getKnownNodes() {
-        if (knownNodes.isEmpty()) {
-            knownNodes.addAll(PermissionAPI.collectKnownNodes(null));
+    private void finishLoad(UUID id, UserLoad load, @Nullable PermissionUser user, @Nullable Throwable error) {
+        synchronized (this) {
+            // A load superseded by a change of storage is discarded
+            if (loading.remove(id, load) && error == null) {
+                PermissionSnapshot loaded = snapshot.withGroups(snapshot.getGroups().withUser(user != null ? user
+                    : new PermissionUser(id, Collections.emptyList(), NodeIndex.EMPTY)));
+                for (PermissionEdit edit : load.edits) {
+                    loaded = edit.applyTo(loaded);
+                }
+                publishUsers(loaded, Collections.singleton(id));
+                stored.add(id);
+                // Users loaded while offline, such as for an asynchronous lookup, are evicted again once idle
+                if (!online.contains(id)) idle.put(id, System.nanoTime());
+            }
+        }
+        // Completed outside of the lock, so that dependent actions never run while holding it
+        if (error != null) {
+            LOGGER.error("Failed to load the permissions of user {} from storage", id, error);
+            load.future.completeExceptionally(error);
+        } else {
+            load.future.complete(null);
         }
+    }
+
+    /**
+     * Call the given action with the config and the current snapshot while holding the lock of this handler, so that no
+     * edit is applied or journaled concurrently. The action should return quickly.
+     * <p>
+     * Users loaded from the storage are left out of the snapshot passed to the action, as they are persisted in the
+     * storage rather than the permissions file.
+     *
+     * @param action The action to call
+     * @param <T>    The type of the result of the action
+     *
+     * @return The result of the action
+     */
+    public synchronized <T> T checkpoint(BiFunction<CommentedConfig, PermissionSnapshot, T> action) {
+        if (stored.isEmpty()) return action.apply(permissions, snapshot);
+        return action.apply(permissions, snapshot.withGroups(snapshot.getGroups().withoutUsers(stored)));
+    }
+
+    /**
+     * Publish the given snapshot, and invalidate all cached values. Must be called while holding the lock of this handler.
+     * <p>
+     * The snapshot is swapped in before the cache epoch is bumped, so a value resolved against an older snapshot is never
+     * stored under the new epoch.
+     */
+    private void publish(PermissionSnapshot snapshot) {
+        this.snapshot = snapshot;
+        cache.invalidate();
+    }
+
+    /**
+     * Publish the given snapshot, which differs from the current snapshot only in the given users, and invalidate only the
+     * cached values of those users. Must be called while holding the lock of this handler.
+     * <p>
+     * Adding, removing or editing a user changes no value resolved for any other user, so the values cached for other
+     * users are kept. The snapshot is swapped in before the entries of the users are dropped from the cache; as queries
+     * obtain the cache entry of a user before reading the snapshot, a value resolved against an older snapshot is only
+     * ever stored in a dropped entry.
+     */
+    private void publishUsers(PermissionSnapshot snapshot, Collection<UUID> ids) {
+        this.snapshot = snapshot;
+        for (UUID id : ids) {
+            cache.invalidate(id);
+        }
+    }
+
+    /**
+     * Return the current permission snapshot.
+     *
+     * @return The current snapshot
+     */
+    public PermissionSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Add the given group, replacing any existing group with the same name.
+     * <p>
+     * Only the group and the groups inheriting from it are flattened again.
+     *
+     * @param group The group to add
+     */
+    public synchronized void putGroup(Group group) {
+        publish(snapshot.withGroups(snapshot.getGroups().withGroup(group)));
+    }
+
+    /**
+     * Remove the group with the given name, if it exists.
+     *
+     * @param name The name of the group to remove
+     */
+    public synchronized void removeGroup(String name) {
+        publish(snapshot.withGroups(snapshot.getGroups().withoutGroup(name)));
+    }
+
+    /**
+     * Add the given user, replacing any existing user with the same UUID.
+     *
+     * @param user The user to add
+     */
+    public synchronized void putUser(PermissionUser user) {
+        publishUsers(snapshot.withGroups(snapshot.getGroups().withUser(user)), Collections.singleton(user.getId()));
+    }
+
+    /**
+     * Remove the user with the given UUID, if they exist.
+     *
+     * @param id The UUID of the user to remove
+     */
+    public synchronized void removeUser(UUID id) {
+        stored.remove(id);
+        idle.remove(id);
+        publishUsers(snapshot.withGroups(snapshot.getGroups().withoutUser(id)), Collections.singleton(id));
+    }
+
+    /**
+     * Add the given region, replacing any existing region with the same name.
+     * <p>
+     * Only the cells overlapped by the region are updated; the rest of the region index is shared with the previous index.
+     *
+     * @param region The region to add
+     */
+    public synchronized void addRegion(Region region) {
+        publish(snapshot.withRegions(snapshot.getRegions().with(region)));
+    }
+
+    /**
+     * Remove the region with the given name, if it exists.
+     *
+     * @param name The name of the region to remove
+     */
+    public synchronized void removeRegion(String name) {
+        publish(snapshot.withRegions(snapshot.getRegions().without(name)));
+    }
+
+    public UserPermissionCache getCache() {
+        return cache;
+    }
+
+    public KnownNodeRegistry getKnownNodes() {
         return knownNodes;
     }
 
     public void invalidateKnownNodes() {
-        knownNodes.clear();
+        knownNodes.invalidate();
     }
 
     @Override
     public IPermissionValue getPermissionValue(ResourceLocation node, GameProfile user, PermissionContext context) {
-        if (!permissions.contains(node.getNamespace())) {
-            permissions.set(node.getNamespace(), permissions.createSubConfig());
+        final PermissionNode handle = PermissionNode.lookup(node);
+        if (handle == null) return resolve(snapshot.getGroups(), node, user);
+        return getPermissionValue(handle, user, context);
+    }
+
+    @Override
+    public IPermissionValue getPermissionValue(PermissionNode node, GameProfile user, PermissionContext context) {
+        // The epoch and the cache entry must be read before the snapshot; see publish and publishUsers
+        final long epoch = cache.getEpoch();
+        final UUID id = user.getId();
+        final UserPermissionCache.UserEntry entry = id != null ? cache.getEntry(id) : null;
+        final PermissionSnapshot snapshot = this.snapshot;
+        final IPermissionValue contextValue = evaluateContext(snapshot, node, user, context);
+        if (contextValue != null) return contextValue;
+        if (entry == null) return resolve(snapshot.getGroups(), node, user);
+
+        IPermissionValue value = entry.get(node);
+        if (value == null) {
+            value = resolve(snapshot.getGroups(), node, user);
+            entry.put(node, value, epoch);
+        }
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If a storage is set and the user is not resident in the snapshot, the user is first {@linkplain #loadUser(UUID)
+     * loaded} from the storage on its loader threads, sharing the load with any other request for the same user. Otherwise,
+     * the returned future is already complete.
+     */
+    @Override
+    public CompletableFuture<IPermissionValue> getPermissionValueAsync(ResourceLocation node, GameProfile user,
+        PermissionContext context) {
+        final UUID id = user.getId();
+        if (id == null) return CompletableFuture.completedFuture(getPermissionValue(node, user, context));
+        return loadUser(id).thenApply(loaded -> getPermissionValue(node, user, context));
+    }
+
+    @Override
+    public Map<ResourceLocation, IPermissionValue> getPermissionValues(Collection<ResourceLocation> nodes, GameProfile user,
+        PermissionContext context) {
+        // The epoch and the cache entry must be read before the snapshot; see publish and publishUsers
+        final long epoch = cache.getEpoch();
+        final UUID id = user.getId();
+        final UserPermissionCache.UserEntry entry = id != null ? cache.getEntry(id) : null;
+        final PermissionSnapshot snapshot = this.snapshot;
+        final GroupIndex groups = snapshot.getGroups();
+
+        final Map<ResourceLocation, IPermissionValue> values = Maps.newLinkedHashMapWithExpectedSize(nodes.size());
+        for (ResourceLocation node : nodes) {
+            final PermissionNode handle = PermissionNode.lookup(node);
+            if (handle == null) {
+                values.put(node, resolve(groups, node, user));
+                continue;
+            }
+            IPermissionValue value = evaluateContext(snapshot, handle, user, context);
+            if (value == null && entry != null) value = entry.get(handle);
+            if (value == null) {
+                value = resolve(groups, handle, user);
+                if (entry != null) entry.put(handle, value, epoch);
+            }
+            values.put(node, value);
         }
-        Object value = permissions.<UnmodifiableConfig>get(node.getNamespace()).get(node.getPath());
-        IPermissionValue permValue = wrapValue(value);
-        if (value != null && permValue.isEmpty()) {
-            permissions.set(node.getPath(), null);
+        return Collections.unmodifiableMap(values);
+    }
+
+    @Override
+    public boolean usesContext(ContextKey<?> key) {
+        final PermissionSnapshot snapshot = this.snapshot;
+        if (snapshot.getRules().usesContext(key)) return true;
+        return !snapshot.getRegions().isEmpty() && (key.equals(StandardContextKeys.WORLD)
+            || key.equals(StandardContextKeys.TARGET_BLOCK_POS) || key.equals(StandardContextKeys.THIS_POSITION));
+    }
+
+    @Override
+    public boolean usesContext() {
+        final PermissionSnapshot snapshot = this.snapshot;
+        return !snapshot.getRules().isEmpty() || !snapshot.getRegions().isEmpty();
+    }
+
+    /**
+     * Evaluate the regions and rules of the given node against the context, returning {@code null} if the node has no
+     * containing region which applies to the user, or matching rule.
+     */
+    @Nullable
+    private static IPermissionValue evaluateContext(PermissionSnapshot snapshot, PermissionNode node, GameProfile user,
+        PermissionContext context) {
+        final RegionIndex regions = snapshot.getRegions();
+        if (regions.definesNode(node)) {
+            final List<String> groups = regions.hasExemptions() ? snapshot.getGroups().getGroups(user.getId())
+                : Collections.emptyList();
+            final IPermissionValue value = evaluateRegions(regions, node, context, groups);
+            if (value != null) return value;
         }
-        return permValue;
+        final RuleTree tree = snapshot.getRules().get(node);
+        return tree != null ? tree.evaluate(context) : null;
     }
 
-    static <T> IPermissionValue wrapValue(@Nullable T obj) {
-        OptionalBoolean optBool = OptionalBoolean.empty();
-        OptionalInt optInt = OptionalInt.empty();
-        OptionalLong optLong = OptionalLong.empty();
-        OptionalDouble optDouble = OptionalDouble.empty();
-        if (obj instanceof Number) {
+    @Nullable
+    private static IPermissionValue evaluateRegions(RegionIndex regions, PermissionNode node, PermissionContext context,
+        List<String> groups) {
+        final World world = context.getNullable(StandardContextKeys.WORLD);
+        if (world == null) return null;
+        final BlockPos pos = context.getNullable(StandardContextKeys.TARGET_BLOCK_POS);
+        if (pos != null) {
+            return regions.get(node, world.getDimensionKey(), pos.getX(), pos.getY(), pos.getZ(), groups);
+        }
+        final Vector3d position = context.getNullable(StandardContextKeys.THIS_POSITION);
+        if (position != null) {
+            return regions.get(node, world.getDimensionKey(), MathHelper.floor(position.x), MathHelper.floor(position.y),
+                MathHelper.floor(position.z), groups);
+        }
+        return null;
+    }
+
+    /**
+     * Resolve the context-independent value of a permission node.
+     */
+    private static IPermissionValue resolve(GroupIndex groups, PermissionNode node, GameProfile user) {
+        final UUID id = user.getId();
+        return id != null ? groups.get(id, node) : groups.getDefault().get(node);
+    }
+
+    /**
+     * Resolve a permission node which has never been {@linkplain PermissionNode registered}.
+     */
+    private static IPermissionValue resolve(GroupIndex groups, ResourceLocation node, GameProfile user) {
+        // Every compiled node is registered, so this can only match a wildcard grant
+        final UUID id = user.getId();
+        return id != null ? groups.get(id, node) : groups.getDefault().get(node);
+    }
+
+    /**
+     * Wrap the given config value into a permission value.
+     * <p>
+     * Booleans and the primitive number types are wrapped into the shared, typed permission values from the {@code values}
+     * package. Other numbers fall back to a general {@link PermissionValue}, and all other objects are wrapped as
+     * {@link IPermissionValue#EMPTY}.
+     *
+     * @param obj The config value, may be {@code null}
+     * @param <T> The type of the config value
+     *
+     * @return The wrapped permission value
+     */
+    public static <T> IPermissionValue wrapValue(@Nullable T obj) {
+        if (obj instanceof Boolean) {
+            return BooleanPermissionValue.of((Boolean) obj);
+        } else if (obj instanceof Integer || obj instanceof Long || obj instanceof Short || obj instanceof Byte) {
+            return LongPermissionValue.of(((Number) obj).longValue());
+        } else if (obj instanceof Double || obj instanceof Float) {
+            return DoublePermissionValue.of(((Number) obj).doubleValue());
+        } else if (obj instanceof Number) {
             Number num = (Number) obj;
-            optInt = OptionalInt.of(num.intValue());
-            optLong = OptionalLong.of(num.longValue());
-            optDouble = OptionalDouble.of(num.doubleValue());
-        } else if (obj instanceof Boolean) {
-            optBool = OptionalBoolean.of((Boolean) obj);
+            return new PermissionValue(OptionalBoolean.empty(), OptionalInt.of(num.intValue()),
+                OptionalLong.of(num.longValue()), OptionalDouble.of(num.doubleValue()));
         }
-        return new PermissionValue(optBool, optInt, optLong, optDouble);
+        return IPermissionValue.EMPTY;
+    }
+
+    /**
+     * Unwrap the given permission value into a config value, the inverse of {@link #wrapValue(Object)}: a {@link Boolean}
+     * if it has a boolean value, a {@link Double} if it is a double value or has no long value, otherwise a {@link Long}.
+     *
+     * @param value The permission value
+     *
+     * @return The config value, or {@code null} if the permission value is empty
+     */
+    @Nullable
+    public static Object unwrapValue(IPermissionValue value) {
+        if (value.isEmpty()) {
+            return null;
+        } else if (value.asBoolean().isPresent()) {
+            return value.getBoolean(false);
+        } else if (value instanceof DoublePermissionValue || !value.asLong().isPresent()) {
+            return value.getDouble(0.0D);
+        }
+        return value.getLong(0L);
+    }
+
+    /**
+     * A load of a user from the storage, with the edits of the user made while it is in progress.
+     */
+    private static final class UserLoad {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        final List<PermissionEdit> edits = new ArrayList<>();
     }
 }
@@ -1,44 +1,172 @@
 package dev.socketmods.socketperms;
 
+import com.electronwill.nightconfig.core.CommentedConfig;
+import com.electronwill.nightconfig.toml.TomlParser;
 import dev.socketmods.socketperms.api.IPermissionHandler;
 import dev.socketmods.socketperms.api.PermissionAPI;
 import dev.socketmods.socketperms.api.PermissionCollectionEvent;
-import net.minecraft.util.ResourceLocation;
+import dev.socketmods.socketperms.api.PermissionNode;
+import dev.socketmods.socketperms.storage.JdbcPermissionStorage;
+import dev.socketmods.socketperms.storage.StorageWorker;
+import net.minecraft.world.storage.FolderName;
 import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.entity.player.PlayerEvent;
 import net.minecraftforge.fml.common.Mod;
 import net.minecraftforge.fml.event.server.FMLServerStartedEvent;
 import net.minecraftforge.fml.event.server.FMLServerStartingEvent;
+import net.minecraftforge.fml.event.server.FMLServerStoppingEvent;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
 @Mod(SocketPerms.MODID)
 public class SocketPerms {
     private static final Logger LOGGER = LogManager.getLogger();
     public static final String MODID = "socketperms";
+    private static final String PERMISSIONS_FILE = MODID + "-permissions.toml";
+    private static final String STORAGE_FILE = MODID + "-storage.toml";
+    private static final String NODE_MANIFEST_FILE = MODID + "-nodes.txt";
+    private static final int DEFAULT_STORAGE_POOL_SIZE = 2;
+    private static final long DEFAULT_IDLE_EVICTION_SECONDS = 300L;
+    /**
+     * The interval between sweeps for idle users to evict, in ticks.
+     */
+    private static final int EVICTION_SWEEP_TICKS = 20 * 30;
+
+    public static final PermissionNode COMMAND = PermissionAPI.node("socketperms:command");
+    public static final PermissionNode INTERACT_ENTITY = PermissionAPI.node("socketperms:interact.entity");
+    public static final PermissionNode INTERACT_BLOCK = PermissionAPI.node("socketperms:interact.block");
+
+    @Nullable
+    private PermissionFile permissionFile;
+    @Nullable
+    private StorageWorker storage;
+    private int ticksUntilSweep = EVICTION_SWEEP_TICKS;
 
     public SocketPerms() {
-        new SocketPermissionHandler();
         MinecraftForge.EVENT_BUS.addListener(this::onServerStarting);
+        MinecraftForge.EVENT_BUS.addListener(this::onServerStarted);
+        MinecraftForge.EVENT_BUS.addListener(this::onServerStopping);
+        MinecraftForge.EVENT_BUS.addListener(this::onPlayerLoggedIn);
+        MinecraftForge.EVENT_BUS.addListener(this::onPlayerLoggedOut);
+        MinecraftForge.EVENT_BUS.addListener(this::onServerTick);
         MinecraftForge.EVENT_BUS.addListener(PermissionCommand::onRegisterCommands);
         MinecraftForge.EVENT_BUS.addListener(this::onPermissionCollection);
     }
 
     void onServerStarting(FMLServerStartingEvent event) {
-        PermissionAPI.setHandler(new SocketPermissionHandler());
+        final SocketPermissionHandler handler = new SocketPermissionHandler();
+        PermissionAPI.setHandler(handler);
         // TODO: define when the permission handler should be set
+
+        final Path configDir = event.getServer().func_240776_a_(new FolderName("serverconfig"));
+        final Path storagePath = configDir.resolve(STORAGE_FILE);
+        try {
+            final CommentedConfig storageConfig = readStorageConfig(storagePath);
+            if (storageConfig != null) {
+                storage = openStorage(storageConfig);
+                handler.setStorage(storage);
+                final Object idleSeconds = storageConfig.get("idle_eviction_seconds");
+                handler.setIdleEviction(idleSeconds instanceof Number ? ((Number) idleSeconds).longValue()
+                    : DEFAULT_IDLE_EVICTION_SECONDS, TimeUnit.SECONDS);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Failed to open permission storage from {}; users will be read from the permissions file",
+                storagePath, e);
+        }
+
+        handler.getKnownNodes().setManifest(new NodeManifest(configDir.resolve(NODE_MANIFEST_FILE),
+            NodeManifest.hashModList()));
+
+        final Path path = configDir.resolve(PERMISSIONS_FILE);
+        permissionFile = new PermissionFile(path, handler);
+        try {
+            permissionFile.load();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Failed to load permissions file {}; starting with no permissions", path, e);
+        }
+        try {
+            permissionFile.startWatching();
+        } catch (IOException e) {
+            LOGGER.error("Failed to watch permissions file {}; changes will not be reloaded", path, e);
+        }
+    }
+
+    void onServerStopping(FMLServerStoppingEvent event) {
+        if (permissionFile != null) {
+            permissionFile.close();
+            permissionFile = null;
+        }
+        if (storage != null) {
+            final IPermissionHandler handler = PermissionAPI.getHandler();
+            if (handler instanceof SocketPermissionHandler) ((SocketPermissionHandler) handler).setStorage(null);
+            storage.close();
+            storage = null;
+        }
+    }
+
+    void onPlayerLoggedIn(PlayerEvent.PlayerLoggedInEvent event) {
+        final IPermissionHandler handler = PermissionAPI.getHandler();
+        if (handler instanceof SocketPermissionHandler) {
+            ((SocketPermissionHandler) handler).userLoggedIn(event.getPlayer().getUniqueID());
+        }
+    }
+
+    void onPlayerLoggedOut(PlayerEvent.PlayerLoggedOutEvent event) {
+        final IPermissionHandler handler = PermissionAPI.getHandler();
+        if (handler instanceof SocketPermissionHandler) {
+            ((SocketPermissionHandler) handler).userLoggedOut(event.getPlayer().getUniqueID());
+        }
+    }
+
+    void onServerTick(TickEvent.ServerTickEvent event) {
+        if (event.phase != TickEvent.Phase.END || storage == null || --ticksUntilSweep > 0) return;
+        ticksUntilSweep = EVICTION_SWEEP_TICKS;
+        final IPermissionHandler handler = PermissionAPI.getHandler();
+        if (handler instanceof SocketPermissionHandler) ((SocketPermissionHandler) handler).evictIdleUsers();
     }
 
     void onServerStarted(FMLServerStartedEvent event) {
         final IPermissionHandler handler = PermissionAPI.getHandler();
         if (handler instanceof SocketPermissionHandler) {
-            ((SocketPermissionHandler) handler).getKnownNodes();
-            // Collect all the known permission nodes
+            // Load the known permission nodes once all mods are ready, collecting them only if the mods have changed
+            ((SocketPermissionHandler) handler).getKnownNodes().loadOrCollect();
         }
     }
 
     void onPermissionCollection(PermissionCollectionEvent event) {
-        event.addNode(new ResourceLocation("socketperms:command"));
-        event.addNode(new ResourceLocation("socketperms:interact.entity"));
-        event.addNode(new ResourceLocation("socketperms:interact.block"));
+        event.addNode(COMMAND);
+        event.addNode(INTERACT_ENTITY);
+        event.addNode(INTERACT_BLOCK);
+    }
+
+    /**
+     * Read the storage config from the given file, or return {@code null} if the file does not exist or configures no
+     * storage. The file holds the JDBC {@code url} of the database, and optionally the {@code pool_size} of connections and
+     * the {@code idle_eviction_seconds} after which users who are offline are evicted from memory.
+     */
+    @Nullable
+    private static CommentedConfig readStorageConfig(Path path) throws IOException {
+        if (!Files.exists(path)) return null;
+        final CommentedConfig config;
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            config = new TomlParser().parse(reader);
+        }
+        final Object url = config.get("url");
+        return url instanceof String && !((String) url).isEmpty() ? config : null;
+    }
+
+    private static StorageWorker openStorage(CommentedConfig config) throws IOException {
+        final Object poolSize = config.get("pool_size");
+        final int size = poolSize instanceof Number ? ((Number) poolSize).intValue() : DEFAULT_STORAGE_POOL_SIZE;
+        return new StorageWorker(JdbcPermissionStorage.open(config.get("url"), size), size);
     }
 }
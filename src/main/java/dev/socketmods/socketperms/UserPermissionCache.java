@@ -0,0 +1,287 @@
+package dev.socketmods.socketperms;
+
+import com.google.common.base.Preconditions;
+import dev.socketmods.socketperms.api.IPermissionValue;
+import dev.socketmods.socketperms.api.PermissionNode;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.Nullable;
+
+/**
+ * A bounded cache of resolved permission values, keyed by user and permission node.
+ * <p>
+ * The cache holds up to a maximum number of users, each with a fixed number of slots for cached nodes. Users are held in a
+ * {@link ConcurrentHashMap}, and are evicted approximately least recently used: each user records the value of an access
+ * clock, which only advances when a user is added, and once the cache is over capacity the least recently used eighth of
+ * the users is evicted in one batch by whichever thread gets there first. A user's cached values are held in a
+ * direct-mapped table of slots indexed by the {@linkplain PermissionNode#getId() ID of the node handle}, so the node itself
+ * is never hashed; a node displaces the node cached in its slot.
+ * <p>
+ * Cached values are invalidated through a global epoch counter, which is bumped by {@link #invalidate()} on any permission
+ * edit or reload. Each cached value records the epoch it was stored under, and is only returned under that epoch. A value
+ * resolved under an older epoch is not stored, so a resolution racing with an invalidation cannot leave a stale value in
+ * the cache. A change affecting only a single user instead {@linkplain #invalidate(UUID) drops} the entry of that user,
+ * leaving the values of all other users cached.
+ * <p>
+ * Lookups and stores never lock: the slots are updated atomically with immutable entries, and only the eviction of users
+ * is serialized, without blocking other threads. Hit and miss counts are recorded for sizing the cache. This class is
+ * thread-safe.
+ */
+public class UserPermissionCache {
+    private final int maxUsers;
+    private final int maxNodesPerUser;
+    private final int slotMask;
+    private final AtomicLong epoch = new AtomicLong();
+    /**
+     * The access clock, advanced whenever a user is added to the cache.
+     */
+    private final AtomicLong clock = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final Map<UUID, UserEntry> users = new ConcurrentHashMap<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    /**
+     * Constructs a new {@code UserPermissionCache}.
+     *
+     * @param maxUsers        The maximum number of users held in the cache
+     * @param maxNodesPerUser The number of nodes cached for each user, rounded up to a power of two
+     *
+     * @throws IllegalArgumentException If either of the given maximums is not positive
+     */
+    public UserPermissionCache(int maxUsers, int maxNodesPerUser) {
+        Preconditions.checkArgument(maxUsers > 0, "Maximum users must be positive");
+        Preconditions.checkArgument(maxNodesPerUser > 0, "Maximum nodes per user must be positive");
+        this.maxUsers = maxUsers;
+        int slots = 1;
+        while (slots < maxNodesPerUser) {
+            slots <<= 1;
+        }
+        this.maxNodesPerUser = slots;
+        this.slotMask = slots - 1;
+    }
+
+    /**
+     * Return the current epoch of this cache.
+     * <p>
+     * Callers should read the epoch before resolving a value, and pass it to {@link #put(UUID, PermissionNode,
+     * IPermissionValue, long)} when storing the resolved value.
+     *
+     * @return The current epoch
+     */
+    public long getEpoch() {
+        return epoch.get();
+    }
+
+    /**
+     * Invalidate all cached values, by bumping the epoch.
+     */
+    public void invalidate() {
+        epoch.incrementAndGet();
+    }
+
+    /**
+     * Remove all cached values for the given user, by dropping their entry. Values stored later into an entry obtained
+     * before it was dropped are never returned.
+     *
+     * @param user The user's UUID
+     */
+    public void invalidate(UUID user) {
+        users.remove(user);
+    }
+
+    /**
+     * Return the cached value for the given user and permission node, or {@code null} if there is no value cached under the
+     * current epoch.
+     *
+     * @param user The user's UUID
+     * @param node The permission node
+     *
+     * @return The cached value, or {@code null} if none is cached
+     */
+    @Nullable
+    public IPermissionValue get(UUID user, PermissionNode node) {
+        return getEntry(user).get(node);
+    }
+
+    /**
+     * Store the given resolved value for the given user and permission node.
+     * <p>
+     * If the epoch has been bumped since the given epoch was read, the value is not stored.
+     *
+     * @param user          The user's UUID
+     * @param node          The permission node
+     * @param value         The resolved value
+     * @param resolvedEpoch The epoch read before resolving the value
+     */
+    public void put(UUID user, PermissionNode node, IPermissionValue value, long resolvedEpoch) {
+        getEntry(user).put(node, value, resolvedEpoch);
+    }
+
+    /**
+     * Return the cache entry for the given user, creating it if needed.
+     * <p>
+     * This is useful for looking up several nodes for the same user, without repeating the lookup of the user.
+     *
+     * @param user The user's UUID
+     *
+     * @return The cache entry for the user
+     */
+    public UserEntry getEntry(UUID user) {
+        UserEntry entry = users.get(user);
+        if (entry != null) {
+            entry.touch(clock.get());
+            return entry;
+        }
+        final UserEntry created = new UserEntry(clock.incrementAndGet());
+        entry = users.putIfAbsent(user, created);
+        if (entry != null) return entry;
+        if (users.size() > maxUsers) evict();
+        return created;
+    }
+
+    /**
+     * Evict the least recently used users, unless another thread is already evicting. The evicting thread checks again
+     * after releasing the lock, so users added by other threads in the meantime are not left over capacity.
+     */
+    private void evict() {
+        while (users.size() > maxUsers && evictionLock.tryLock()) {
+            try {
+                final int excess = users.size() - maxUsers;
+                if (excess <= 0) return;
+                // The access stamps are copied first, as they may change while sorting
+                final List<Candidate> candidates = new ArrayList<>(users.size());
+                users.forEach((id, entry) -> candidates.add(new Candidate(id, entry, entry.lastAccess)));
+                candidates.sort(Comparator.comparingLong(candidate -> candidate.lastAccess));
+                final int count = Math.min(candidates.size(), excess + maxUsers / 8);
+                for (int i = 0; i < count; i++) {
+                    users.remove(candidates.get(i).id, candidates.get(i).entry);
+                }
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Return the number of cache hits recorded since creation.
+     *
+     * @return The number of cache hits
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Return the number of cache misses recorded since creation.
+     *
+     * @return The number of cache misses
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Return the number of users currently held in the cache.
+     *
+     * @return The number of cached users
+     */
+    public int getUserCount() {
+        return users.size();
+    }
+
+    @Override
+    public String toString() {
+        return "UserPermissionCache[users=" + getUserCount() + "/" + maxUsers + ", nodesPerUser=" + maxNodesPerUser
+            + ", hits=" + getHitCount() + ", misses=" + getMissCount() + ", epoch=" + getEpoch() + "]";
+    }
+
+    /**
+     * The cached values of a single user.
+     */
+    public final class UserEntry {
+        private final AtomicReferenceArray<CachedValue> slots = new AtomicReferenceArray<>(maxNodesPerUser);
+        private volatile long lastAccess;
+
+        UserEntry(long lastAccess) {
+            this.lastAccess = lastAccess;
+        }
+
+        void touch(long now) {
+            // Only written when the clock has advanced, so that concurrent readers of a user do not contend on the field
+            if (lastAccess != now) lastAccess = now;
+        }
+
+        /**
+         * Return the cached value for the given permission node, or {@code null} if there is no value cached under the
+         * current epoch.
+         *
+         * @param node The permission node
+         *
+         * @return The cached value, or {@code null} if none is cached
+         */
+        @Nullable
+        public IPermissionValue get(PermissionNode node) {
+            final CachedValue cached = slots.get(node.getId() & slotMask);
+            if (cached != null && cached.id == node.getId() && cached.epoch == epoch.get()) {
+                hits.increment();
+                return cached.value;
+            }
+            misses.increment();
+            return null;
+        }
+
+        /**
+         * Store the given resolved value for the given permission node.
+         * <p>
+         * If the epoch has been bumped since the given epoch was read, the value is not stored.
+         *
+         * @param node          The permission node
+         * @param value         The resolved value
+         * @param resolvedEpoch The epoch read before resolving the value
+         */
+        public void put(PermissionNode node, IPermissionValue value, long resolvedEpoch) {
+            if (resolvedEpoch != epoch.get()) return;
+            slots.set(node.getId() & slotMask, new CachedValue(node.getId(), value, resolvedEpoch));
+        }
+    }
+
+    /**
+     * A user considered for eviction, with their access stamp at the start of the eviction.
+     */
+    private static final class Candidate {
+        final UUID id;
+        final UserEntry entry;
+        final long lastAccess;
+
+        Candidate(UUID id, UserEntry entry, long lastAccess) {
+            this.id = id;
+            this.entry = entry;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    /**
+     * An immutable cached value, with the ID of its node and the epoch it was stored under.
+     */
+    private static final class CachedValue {
+        final int id;
+        final IPermissionValue value;
+        final long epoch;
+
+        CachedValue(int id, IPermissionValue value, long epoch) {
+            this.id = id;
+            this.value = value;
+            this.epoch = epoch;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package dev.socketmods.socketperms;
+
+import dev.socketmods.socketperms.api.IPermissionValue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * An immutable trie of the wildcard grants of a single namespace, keyed by the dot-separated segments of node paths.
+ * <p>
+ * The wildcard {@code a.b.*} is held by the trie node reached through the segments {@code a} and {@code b}, and matches
+ * every node whose path starts with {@code a.b.}; the namespace wildcard {@code *} is held by the root, and matches every
+ * node of the namespace. A wildcard does not match the node of its own prefix, so {@code a.b.*} does not match {@code a.b}.
+ * <p>
+ * When several wildcards match a node, the longest one wins, so a narrower wildcard with a {@code false} value negates a
+ * broader grant. Matching is a single walk down the segments of the path, which are compared in place without splitting
+ * the path or allocating.
+ */
+final class WildcardTrie {
+    private static final String[] NO_SEGMENTS = new String[0];
+    private static final WildcardTrie[] NO_CHILDREN = new WildcardTrie[0];
+
+    private final String[] segments;
+    private final WildcardTrie[] children;
+    @Nullable
+    private final IPermissionValue value;
+
+    private WildcardTrie(String[] segments, WildcardTrie[] children, @Nullable IPermissionValue value) {
+        this.segments = segments;
+        this.children = children;
+        this.value = value;
+    }
+
+    /**
+     * Return the value of the longest wildcard matching the given node path, or {@code null} if no wildcard matches.
+     *
+     * @param path The path of the node
+     *
+     * @return The value of the longest matching wildcard, or {@code null} if none matches
+     */
+    @Nullable
+    IPermissionValue match(String path) {
+        IPermissionValue match = null;
+        WildcardTrie node = this;
+        int start = 0;
+        while (node != null) {
+            if (node.value != null) match = node.value;
+            final int end = path.indexOf('.', start);
+            // Wildcards below the last segment would only match descendants of the node itself
+            if (end < 0) break;
+            node = node.child(path, start, end);
+            start = end + 1;
+        }
+        return match;
+    }
+
+    @Nullable
+    private WildcardTrie child(String path, int start, int end) {
+        final int length = end - start;
+        for (int i = 0; i < segments.length; i++) {
+            final String segment = segments[i];
+            if (segment.length() == length && path.regionMatches(start, segment, 0, length)) return children[i];
+        }
+        return null;
+    }
+
+    /**
+     * Build a trie from the given wildcard grants, keyed by the prefix of each wildcard without the trailing {@code .*}, with
+     * the empty prefix for the namespace wildcard.
+     *
+     * @param wildcards The wildcard grants
+     *
+     * @return The compiled trie
+     */
+    static WildcardTrie build(Map<String, IPermissionValue> wildcards) {
+        final Builder root = new Builder();
+        for (Map.Entry<String, IPermissionValue> entry : wildcards.entrySet()) {
+            Builder node = root;
+            final String prefix = entry.getKey();
+            if (!prefix.isEmpty()) {
+                for (String segment : prefix.split("\\.", -1)) {
+                    node = node.children.computeIfAbsent(segment, k -> new Builder());
+                }
+            }
+            node.value = entry.getValue();
+        }
+        return root.build();
+    }
+
+    private static final class Builder {
+        final Map<String, Builder> children = new LinkedHashMap<>();
+        @Nullable
+        IPermissionValue value;
+
+        WildcardTrie build() {
+            if (children.isEmpty()) return new WildcardTrie(NO_SEGMENTS, NO_CHILDREN, value);
+            final String[] segments = new String[children.size()];
+            final WildcardTrie[] built = new WildcardTrie[children.size()];
+            int i = 0;
+            for (Map.Entry<String, Builder> entry : children.entrySet()) {
+                segments[i] = entry.getKey();
+                built[i++] = entry.getValue().build();
+            }
+            return new WildcardTrie(segments, built, value);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package dev.socketmods.socketperms.groups;
+
+import com.electronwill.nightconfig.core.UnmodifiableConfig;
+import com.google.common.collect.ImmutableMap;
+import dev.socketmods.socketperms.api.IPermissionValue;
+import dev.socketmods.socketperms.values.DoublePermissionValue;
+import dev.socketmods.socketperms.values.LongPermissionValue;
+import net.minecraft.util.ResourceLocation;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * The policy for combining the numeric values of a permission node across the groups of a user.
+ * <p>
+ * Policies are declared in the {@code aggregation} section of the permissions config, laid out like the top-level
+ * permissions with the name of the policy as the value:
+ * <pre>
+ * [aggregation.homes]
+ * max = "max"
+ * [aggregation.claims]
+ * blocks = "sum"
+ * </pre>
+ * <p>
+ * Only the values which the groups (or the groups they inherit from) define themselves are combined, and each defining
+ * group is counted once, so a value which several groups of the user inherit from the same group is not counted twice;
+ * the global value of the node is used only if none of the groups of the user define it. The combined value is a {@code
+ * long} if all combined values are integral, otherwise a {@code double}. Values which are not numeric are ignored.
+ */
+public enum Aggregation {
+    MAX {
+        @Override
+        long combine(long a, long b) {
+            return Math.max(a, b);
+        }
+
+        @Override
+        double combine(double a, double b) {
+            return Math.max(a, b);
+        }
+    },
+    MIN {
+        @Override
+        long combine(long a, long b) {
+            return Math.min(a, b);
+        }
+
+        @Override
+        double combine(double a, double b) {
+            return Math.min(a, b);
+        }
+    },
+    SUM {
+        @Override
+        long combine(long a, long b) {
+            return a + b;
+        }
+
+        @Override
+        double combine(double a, double b) {
+            return a + b;
+        }
+    };
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    abstract long combine(long a, long b);
+
+    abstract double combine(double a, double b);
+
+    /**
+     * Combine the numeric values among the given values, or return {@code null} if none of them are numeric.
+     *
+     * @param values The values to combine
+     *
+     * @return The combined value, or {@code null} if there are no numeric values
+     */
+    @Nullable
+    IPermissionValue aggregate(List<IPermissionValue> values) {
+        boolean found = false;
+        boolean integral = true;
+        for (IPermissionValue value : values) {
+            if (!value.asDouble().isPresent()) continue;
+            found = true;
+            if (value instanceof DoublePermissionValue || !value.asLong().isPresent()) integral = false;
+        }
+        if (!found) return null;
+
+        if (integral) {
+            long result = 0L;
+            boolean first = true;
+            for (IPermissionValue value : values) {
+                if (!value.asDouble().isPresent()) continue;
+                result = first ? value.getLong(0L) : combine(result, value.getLong(0L));
+                first = false;
+            }
+            return LongPermissionValue.of(result);
+        }
+        double result = 0.0D;
+        boolean first = true;
+        for (IPermissionValue value : values) {
+            if (!value.asDouble().isPresent()) continue;
+            result = first ? value.getDouble(0.0D) : combine(result, value.getDouble(0.0D));
+            first = false;
+        }
+        return DoublePermissionValue.of(result);
+    }
+
+    /**
+     * Compile the given aggregation section of the config into a map of permission nodes to their policies. Entries which
+     * are not valid nodes or policies are skipped with a warning. If the same node is declared more than once, the policy
+     * encountered last wins.
+     *
+     * @param config The aggregation section
+     *
+     * @return An immutable map of the nodes to their policies
+     */
+    public static Map<ResourceLocation, Aggregation> compile(UnmodifiableConfig config) {
+        final Map<ResourceLocation, Aggregation> policies = new LinkedHashMap<>();
+        for (UnmodifiableConfig.Entry entry : config.entrySet()) {
+            if (entry.getValue() instanceof UnmodifiableConfig) {
+                flatten(entry.getKey(), null, entry.getValue(), policies);
+            } else {
+                LOGGER.warn("Skipping top-level aggregation entry {} which is not a namespace table", entry.getKey());
+            }
+        }
+        return ImmutableMap.copyOf(policies);
+    }
+
+    private static void flatten(String namespace, @Nullable String prefix, UnmodifiableConfig config,
+        Map<ResourceLocation, Aggregation> policies) {
+        for (UnmodifiableConfig.Entry entry : config.entrySet()) {
+            final String path = prefix == null ? entry.getKey() : prefix + '.' + entry.getKey();
+            final Object value = entry.getValue();
+            if (value instanceof UnmodifiableConfig) {
+                flatten(namespace, path, (UnmodifiableConfig) value, policies);
+                continue;
+            }
+            final ResourceLocation node = ResourceLocation.tryCreate(namespace + ':' + path);
+            final Aggregation policy = value instanceof String ? byName((String) value) : null;
+            if (node == null || policy == null) {
+                LOGGER.warn("Skipping invalid aggregation for permission node {}:{}: {}", namespace, path, value);
+                continue;
+            }
+            policies.put(node, policy);
+        }
+    }
+
+    @Nullable
+    private static Aggregation byName(String name) {
+        for (Aggregation policy : values()) {
+            if (policy.name().equals(name.toUpperCase(Locale.ROOT))) return policy;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,104 @@
+package dev.socketmods.socketperms.groups;
+
+import com.electronwill.nightconfig.core.UnmodifiableConfig;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import dev.socketmods.socketperms.NodeIndex;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * A permission group, with its own permission values and the groups it inherits from.
+ * <p>
+ * Groups are declared in the {@code groups} table of the permissions config, keyed by the name of the group. Each group has
+ * an optional list of {@code parents} to inherit from, and a {@code permissions} table laid out like the top-level
+ * permissions:
+ * <pre>
+ * [groups.vip]
+ * parents = ["member"]
+ * [groups.vip.permissions.socketperms]
+ * command = true
+ * </pre>
+ * <p>
+ * The values of a group take precedence over the values inherited from its parents, and the values inherited from a later
+ * parent take precedence over those inherited from an earlier parent.
+ * <p>
+ * This class is immutable and thread-safe to access.
+ */
+public final class Group {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final String name;
+    private final List<String> parents;
+    private final NodeIndex permissions;
+
+    /**
+     * Constructs a new {@code Group}.
+     *
+     * @param name        The unique name of the group
+     * @param parents     The names of the groups to inherit from, from lowest to highest precedence
+     * @param permissions The permission values of the group
+     */
+    public Group(String name, List<String> parents, NodeIndex permissions) {
+        this.name = Preconditions.checkNotNull(name, "Name must not be null");
+        this.parents = ImmutableList.copyOf(parents);
+        this.permissions = Preconditions.checkNotNull(permissions, "Permissions must not be null");
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getParents() {
+        return parents;
+    }
+
+    public NodeIndex getPermissions() {
+        return permissions;
+    }
+
+    @Override
+    public String toString() {
+        return "Group[" + name + ", parents=" + parents + "]";
+    }
+
+    /**
+     * Parse a group from the given group table of the config, or return {@code null} with a warning if the table is not a
+     * valid group.
+     *
+     * @param name  The name of the group
+     * @param table The group table
+     *
+     * @return The parsed group, or {@code null} if the table is not valid
+     */
+    @Nullable
+    public static Group fromConfig(String name, UnmodifiableConfig table) {
+        final List<String> parents = parseNames(table.get("parents"));
+        if (parents == null) {
+            LOGGER.warn("Skipping group {} with invalid parents: {}", name, table.<Object>get("parents"));
+            return null;
+        }
+        final Object permissions = table.get("permissions");
+        return new Group(name, parents,
+            permissions instanceof UnmodifiableConfig ? NodeIndex.compile((UnmodifiableConfig) permissions) : NodeIndex.EMPTY);
+    }
+
+    /**
+     * Parse the given config value as a list of group names, returning {@code null} if it is not a list of strings. An
+     * absent value is an empty list.
+     */
+    @Nullable
+    static List<String> parseNames(@Nullable Object value) {
+        if (value == null) return ImmutableList.of();
+        if (!(value instanceof List)) return null;
+        final ImmutableList.Builder<String> names = ImmutableList.builder();
+        for (Object name : (List<?>) value) {
+            if (!(name instanceof String)) return null;
+            names.add((String) name);
+        }
+        return names.build();
+    }
+}
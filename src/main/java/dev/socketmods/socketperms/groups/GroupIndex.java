@@ -0,0 +1,442 @@
+package dev.socketmods.socketperms.groups;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import dev.socketmods.socketperms.NodeIndex;
+import dev.socketmods.socketperms.api.IPermissionValue;
+import dev.socketmods.socketperms.api.PermissionNode;
+import net.minecraft.util.ResourceLocation;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import javax.annotation.Nullable;
+
+/**
+ * An immutable index of permission groups and users, with the effective permissions of every group flattened ahead of
+ * time.
+ * <p>
+ * The inherited permissions of a group are the inherited permissions of each of its parents in order, overridden by the
+ * values of the group itself. They are merged into a single {@link NodeIndex} per group on compilation, so the inheritance
+ * chain is never walked at check time. The effective permissions of each distinct list of groups held by a user are the
+ * global permissions (the top-level namespaces of the config), overridden by the inherited permissions of each group in
+ * order; they are likewise merged into a single index, shared by all users with that list.
+ * <p>
+ * Nodes with an {@link Aggregation} policy instead take the combination of the values defined by each of the groups, which
+ * is computed when the merged index is built, so a check of an aggregated node costs the same as any other check.
+ * <p>
+ * A check for a user is a probe into the overrides of the user, followed by a probe into the merged index of their groups.
+ * Users who are not in the index, or have no groups, use the {@value #DEFAULT_GROUP} group, or the global permissions if
+ * there is no such group.
+ * <p>
+ * {@link #withGroup(Group)} and {@link #withoutGroup(String)} return a new index where only the changed group and the groups
+ * inheriting from it (and the group lists containing them) are flattened again; all other flattened indexes are shared
+ * with this index. {@link #withUser(PermissionUser)} and {@link #withoutUser(UUID)} share the flattened and merged indexes
+ * with this index, and only merge the group list of an added user if it has not been merged before, so a change to a user
+ * costs the same regardless of the number of users. Inheritance cycles and unknown parents are ignored with a warning.
+ * <p>
+ * This class is immutable and thread-safe to access.
+ */
+public final class GroupIndex {
+    private static final Logger LOGGER = LogManager.getLogger();
+    /**
+     * The name of the group used by users with no groups.
+     */
+    public static final String DEFAULT_GROUP = "default";
+    private static final List<String> DEFAULT_GROUPS = Collections.singletonList(DEFAULT_GROUP);
+    /**
+     * An empty group index, with no global permissions.
+     */
+    public static final GroupIndex EMPTY = new GroupIndex(NodeIndex.EMPTY, Collections.emptyMap(), Collections.emptyMap(),
+        UserDirectory.EMPTY, Collections.emptyMap(), Collections.emptyMap(), NodeIndex.EMPTY);
+
+    private final NodeIndex global;
+    private final Map<ResourceLocation, Aggregation> aggregations;
+    private final Map<String, Group> groups;
+    private final UserDirectory users;
+    /**
+     * The inherited permissions of each group, without the global permissions.
+     */
+    private final Map<String, NodeIndex> flattened;
+    /**
+     * The effective permissions of each distinct list of groups held by a user.
+     */
+    private final Map<List<String>, NodeIndex> combinations;
+    private final NodeIndex defaultIndex;
+
+    private GroupIndex(NodeIndex global, Map<ResourceLocation, Aggregation> aggregations, Map<String, Group> groups,
+        UserDirectory users, Map<String, NodeIndex> flattened, Map<List<String>, NodeIndex> combinations,
+        NodeIndex defaultIndex) {
+        this.global = global;
+        this.aggregations = aggregations;
+        this.groups = groups;
+        this.users = users;
+        this.flattened = flattened;
+        this.combinations = combinations;
+        this.defaultIndex = defaultIndex;
+    }
+
+    /**
+     * Return the global permissions, which every group inherits.
+     *
+     * @return The global permissions
+     */
+    public NodeIndex getGlobal() {
+        return global;
+    }
+
+    @Nullable
+    public Group getGroup(String name) {
+        return groups.get(name);
+    }
+
+    @Nullable
+    public PermissionUser getUser(UUID id) {
+        return users.get(id);
+    }
+
+    public UserDirectory getUsers() {
+        return users;
+    }
+
+    /**
+     * Return the inherited permissions of the group with the given name, without the global permissions, or {@code null} if
+     * there is no such group.
+     *
+     * @param name The name of the group
+     *
+     * @return The inherited permissions of the group, or {@code null} if there is no such group
+     */
+    @Nullable
+    public NodeIndex getInherited(String name) {
+        return flattened.get(name);
+    }
+
+    /**
+     * Return the value of the given permission node for the given user.
+     *
+     * @param id   The UUID of the user
+     * @param node The permission node handle
+     *
+     * @return The value of the node for the user, or an empty permission value
+     */
+    public IPermissionValue get(UUID id, PermissionNode node) {
+        final PermissionUser user = users.get(id);
+        if (user == null) return defaultIndex.get(node);
+        final IPermissionValue value = user.getPermissions().get(node);
+        return !value.isEmpty() ? value : getGroupsIndex(user).get(node);
+    }
+
+    /**
+     * Return the value of the given permission node for the given user.
+     *
+     * @param id   The UUID of the user
+     * @param node The permission node
+     *
+     * @return The value of the node for the user, or an empty permission value
+     */
+    public IPermissionValue get(UUID id, ResourceLocation node) {
+        final PermissionUser user = users.get(id);
+        if (user == null) return defaultIndex.get(node);
+        final IPermissionValue value = user.getPermissions().get(node);
+        return !value.isEmpty() ? value : getGroupsIndex(user).get(node);
+    }
+
+    /**
+     * Return the groups held by the given user, or the {@value #DEFAULT_GROUP} group if the user is not in the index or has
+     * no groups.
+     *
+     * @param id The UUID of the user, or {@code null} for a user with no UUID
+     *
+     * @return The groups of the user
+     */
+    public List<String> getGroups(@Nullable UUID id) {
+        final PermissionUser user = id != null ? users.get(id) : null;
+        return user != null && !user.getGroups().isEmpty() ? user.getGroups() : DEFAULT_GROUPS;
+    }
+
+    /**
+     * Return the permissions used for users with no groups.
+     *
+     * @return The default permissions
+     */
+    public NodeIndex getDefault() {
+        return defaultIndex;
+    }
+
+    private NodeIndex getGroupsIndex(PermissionUser user) {
+        final NodeIndex index = combinations.get(user.getGroups());
+        return index != null ? index : defaultIndex;
+    }
+
+    /**
+     * Return a new index with the given group added, replacing any group with the same name.
+     *
+     * @param group The group to add
+     *
+     * @return The new index
+     */
+    public GroupIndex withGroup(Group group) {
+        final Map<String, Group> groups = new LinkedHashMap<>(this.groups);
+        groups.put(group.getName(), group);
+        return build(global, aggregations, groups, users, this, Collections.singleton(group.getName()));
+    }
+
+    /**
+     * Return a new index with the group of the given name removed, or this index if there is no such group.
+     *
+     * @param name The name of the group to remove
+     *
+     * @return The new index
+     */
+    public GroupIndex withoutGroup(String name) {
+        if (!groups.containsKey(name)) return this;
+        final Map<String, Group> groups = new LinkedHashMap<>(this.groups);
+        groups.remove(name);
+        return build(global, aggregations, groups, users, this, Collections.singleton(name));
+    }
+
+    /**
+     * Return a new index with the given global permissions. The flattened groups are shared with this index, but the merged
+     * index of every group list is built again.
+     *
+     * @param global The new global permissions
+     *
+     * @return The new index
+     */
+    public GroupIndex withGlobal(NodeIndex global) {
+        Preconditions.checkNotNull(global, "Global permissions must not be null");
+        return build(global, aggregations, groups, users, this, Collections.emptySet());
+    }
+
+    /**
+     * Return a new index with the given user added, replacing any user with the same UUID.
+     *
+     * @param user The user to add
+     *
+     * @return The new index
+     */
+    public GroupIndex withUser(PermissionUser user) {
+        final List<String> key = user.getGroups();
+        Map<List<String>, NodeIndex> combinations = this.combinations;
+        if (!key.isEmpty() && !combinations.containsKey(key)) {
+            final Map<List<String>, NodeIndex> updated = new HashMap<>(combinations);
+            updated.put(key, key.equals(DEFAULT_GROUPS) ? defaultIndex
+                : combine(key, global, aggregations, groups, flattened));
+            combinations = Collections.unmodifiableMap(updated);
+        }
+        return new GroupIndex(global, aggregations, groups, users.with(user), flattened, combinations, defaultIndex);
+    }
+
+    /**
+     * Return a new index with the user of the given UUID removed, or this index if there is no such user.
+     *
+     * @param id The UUID of the user to remove
+     *
+     * @return The new index
+     */
+    public GroupIndex withoutUser(UUID id) {
+        if (users.get(id) == null) return this;
+        // The merged index of the group list of the user is kept, as other users may share it
+        return new GroupIndex(global, aggregations, groups, users.without(id), flattened, combinations, defaultIndex);
+    }
+
+    /**
+     * Return a new index with the users of the given UUIDs removed, building the index only once.
+     *
+     * @param ids The UUIDs of the users to remove
+     *
+     * @return The new index
+     */
+    public GroupIndex withoutUsers(Collection<UUID> ids) {
+        if (ids.isEmpty()) return this;
+        return new GroupIndex(global, aggregations, groups, users.without(ids), flattened, combinations, defaultIndex);
+    }
+
+    /**
+     * Compile a group index from the given global permissions, groups and users. If several groups have the same name, the
+     * last one wins.
+     *
+     * @param global       The global permissions
+     * @param aggregations The aggregation policies of the nodes
+     * @param groups       The groups
+     * @param users        The users
+     *
+     * @return The compiled group index
+     */
+    public static GroupIndex compile(NodeIndex global, Map<ResourceLocation, Aggregation> aggregations,
+        Iterable<Group> groups, UserDirectory users) {
+        Preconditions.checkNotNull(global, "Global permissions must not be null");
+        final Map<String, Group> groupMap = new LinkedHashMap<>();
+        for (Group group : groups) {
+            groupMap.put(group.getName(), group);
+        }
+        return build(global, ImmutableMap.copyOf(aggregations), groupMap, users, null, groupMap.keySet());
+    }
+
+    /**
+     * Build a new index, flattening the changed groups and all groups inheriting from them again, and reusing the
+     * previously flattened indexes of all other groups from the previous index, if any. The merged indexes of group lists
+     * are only reused if the global permissions are unchanged.
+     */
+    private static GroupIndex build(NodeIndex global, Map<ResourceLocation, Aggregation> aggregations,
+        Map<String, Group> groups, UserDirectory users, @Nullable GroupIndex previous, Set<String> changed) {
+        final Set<String> affected = collectDescendants(groups, changed);
+        final GroupIndex reusable = previous != null && previous.global == global ? previous : null;
+
+        final Map<String, NodeIndex> flattened = previous != null ? new HashMap<>(previous.flattened) : new HashMap<>();
+        flattened.keySet().removeAll(affected);
+        final Set<String> visiting = new HashSet<>();
+        for (String name : affected) {
+            if (groups.containsKey(name)) flatten(name, groups, flattened, visiting);
+        }
+
+        final NodeIndex defaultIndex = reusable != null && !affected.contains(DEFAULT_GROUP) ? reusable.defaultIndex
+            : combine(DEFAULT_GROUPS, global, aggregations, groups, flattened);
+        final Map<List<String>, NodeIndex> combinations = new HashMap<>();
+        for (List<String> key : users.getGroupLists()) {
+            if (key.isEmpty() || combinations.containsKey(key)) continue;
+            final NodeIndex existing = reusable != null ? reusable.combinations.get(key) : null;
+            if (existing != null && Collections.disjoint(key, affected)) {
+                combinations.put(key, existing);
+            } else if (key.equals(DEFAULT_GROUPS)) {
+                combinations.put(key, defaultIndex);
+            } else {
+                combinations.put(key, combine(key, global, aggregations, groups, flattened));
+            }
+        }
+        return new GroupIndex(global, aggregations, ImmutableMap.copyOf(groups), users,
+            Collections.unmodifiableMap(flattened), Collections.unmodifiableMap(combinations), defaultIndex);
+    }
+
+    /**
+     * Collect the given groups, and all groups which inherit from them directly or indirectly.
+     */
+    private static Set<String> collectDescendants(Map<String, Group> groups, Set<String> roots) {
+        final Map<String, List<String>> children = new HashMap<>();
+        for (Group group : groups.values()) {
+            for (String parent : group.getParents()) {
+                children.computeIfAbsent(parent, k -> new ArrayList<>()).add(group.getName());
+            }
+        }
+        final Set<String> affected = new LinkedHashSet<>(roots);
+        final Deque<String> queue = new ArrayDeque<>(roots);
+        while (!queue.isEmpty()) {
+            for (String child : children.getOrDefault(queue.poll(), Collections.emptyList())) {
+                if (affected.add(child)) queue.add(child);
+            }
+        }
+        return affected;
+    }
+
+    @Nullable
+    private static NodeIndex flatten(String name, Map<String, Group> groups, Map<String, NodeIndex> flattened,
+        Set<String> visiting) {
+        final NodeIndex existing = flattened.get(name);
+        if (existing != null) return existing;
+        final Group group = groups.get(name);
+        if (group == null) return null;
+        if (!visiting.add(name)) {
+            LOGGER.warn("Ignoring inheritance cycle through group {}", name);
+            return null;
+        }
+
+        final List<NodeIndex> layers = new ArrayList<>(group.getParents().size() + 1);
+        for (String parent : group.getParents()) {
+            final NodeIndex parentIndex = flatten(parent, groups, flattened, visiting);
+            if (parentIndex != null) {
+                layers.add(parentIndex);
+            } else if (!groups.containsKey(parent)) {
+                LOGGER.warn("Ignoring unknown parent {} of group {}", parent, name);
+            }
+        }
+        layers.add(group.getPermissions());
+        visiting.remove(name);
+
+        final NodeIndex index = NodeIndex.merge(layers);
+        flattened.put(name, index);
+        return index;
+    }
+
+    /**
+     * Merge the effective permissions of the given list of groups, with the aggregated values of the nodes with an
+     * aggregation policy on top.
+     * <p>
+     * The aggregated value of a node combines the values of the groups which define the effective value of the node for
+     * each group in the list, each counted once. A value inherited by several groups in the list, such as from a group
+     * which is both held and inherited, is thus only counted once.
+     */
+    private static NodeIndex combine(List<String> names, NodeIndex global, Map<ResourceLocation, Aggregation> aggregations,
+        Map<String, Group> groups, Map<String, NodeIndex> flattened) {
+        final List<NodeIndex> groupLayers = new ArrayList<>(names.size());
+        for (String name : names) {
+            final NodeIndex index = flattened.get(name);
+            if (index != null) groupLayers.add(index);
+        }
+        if (groupLayers.isEmpty()) return global;
+
+        final List<NodeIndex> layers = new ArrayList<>(groupLayers.size() + 2);
+        layers.add(global);
+        layers.addAll(groupLayers);
+        if (groupLayers.size() > 1 && !aggregations.isEmpty()) {
+            final Map<ResourceLocation, IPermissionValue> aggregated = new HashMap<>();
+            final Map<String, IPermissionValue> defined = new LinkedHashMap<>();
+            final Set<String> visiting = new HashSet<>();
+            for (Map.Entry<ResourceLocation, Aggregation> entry : aggregations.entrySet()) {
+                defined.clear();
+                for (String name : names) {
+                    if (!flattened.containsKey(name)) continue;
+                    final Group definer = findDefiner(name, entry.getKey(), groups, visiting);
+                    if (definer != null) {
+                        defined.putIfAbsent(definer.getName(), definer.getPermissions().get(entry.getKey()));
+                    }
+                }
+                final IPermissionValue value = entry.getValue().aggregate(new ArrayList<>(defined.values()));
+                if (value != null) aggregated.put(entry.getKey(), value);
+            }
+            layers.add(NodeIndex.of(aggregated));
+        }
+        return NodeIndex.merge(layers);
+    }
+
+    /**
+     * Find the group which defines the effective value of the given node for the group with the given name: the group
+     * itself if it defines a value, or else the definer for the last of its parents with one, following the order in which
+     * the parents are merged.
+     */
+    @Nullable
+    private static Group findDefiner(String name, ResourceLocation node, Map<String, Group> groups, Set<String> visiting) {
+        final Group group = groups.get(name);
+        if (group == null) return null;
+        if (!group.getPermissions().get(node).isEmpty()) return group;
+        if (!visiting.add(name)) return null;
+        try {
+            final List<String> parents = group.getParents();
+            for (int i = parents.size() - 1; i >= 0; i--) {
+                final Group definer = findDefiner(parents.get(i), node, groups, visiting);
+                if (definer != null) return definer;
+            }
+            return null;
+        } finally {
+            visiting.remove(name);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "GroupIndex[groups=" + groups.size() + ", users=" + users.size() + ", combinations=" + combinations.size()
+            + "]";
+    }
+}
@@ -0,0 +1,112 @@
+package dev.socketmods.socketperms.groups;
+
+import com.electronwill.nightconfig.core.Config;
+import com.electronwill.nightconfig.core.UnmodifiableConfig;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import dev.socketmods.socketperms.NodeIndex;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import javax.annotation.Nullable;
+
+/**
+ * The groups and permission overrides of a single user.
+ * <p>
+ * Users are declared in the {@code users} table of the permissions config, keyed by the UUID of the user. Each user has an
+ * optional list of {@code groups}, and an optional {@code permissions} table of overrides laid out like the top-level
+ * permissions:
+ * <pre>
+ * [users."069a79f4-44e9-4726-a5be-fca90e38aaf5"]
+ * groups = ["vip", "mod"]
+ * [users."069a79f4-44e9-4726-a5be-fca90e38aaf5".permissions.socketperms]
+ * "interact.block" = true
+ * </pre>
+ * <p>
+ * The overrides of a user take precedence over the values of their groups, and the values of a later group take precedence
+ * over those of an earlier group.
+ * <p>
+ * This class is immutable and thread-safe to access.
+ */
+public final class PermissionUser {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final UUID id;
+    private final List<String> groups;
+    private final NodeIndex permissions;
+
+    /**
+     * Constructs a new {@code PermissionUser}.
+     *
+     * @param id          The UUID of the user
+     * @param groups      The names of the groups of the user, from lowest to highest precedence
+     * @param permissions The permission overrides of the user
+     */
+    public PermissionUser(UUID id, List<String> groups, NodeIndex permissions) {
+        this.id = Preconditions.checkNotNull(id, "ID must not be null");
+        this.groups = ImmutableList.copyOf(groups);
+        this.permissions = Preconditions.checkNotNull(permissions, "Permissions must not be null");
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public List<String> getGroups() {
+        return groups;
+    }
+
+    public NodeIndex getPermissions() {
+        return permissions;
+    }
+
+    /**
+     * Write this user into the given user table, laid out as read by {@link #fromConfig(String, UnmodifiableConfig)}.
+     *
+     * @param table The user table to write into
+     */
+    public void writeTo(Config table) {
+        if (!groups.isEmpty()) table.set("groups", new ArrayList<>(groups));
+        if (permissions != NodeIndex.EMPTY) {
+            final Config permissionsTable = table.createSubConfig();
+            permissions.writeTo(permissionsTable);
+            table.set("permissions", permissionsTable);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PermissionUser[" + id + ", groups=" + groups + "]";
+    }
+
+    /**
+     * Parse a user from the given user table of the config, or return {@code null} with a warning if the key is not a UUID
+     * or the table is not valid.
+     *
+     * @param key   The key of the user table
+     * @param table The user table
+     *
+     * @return The parsed user, or {@code null} if the table is not valid
+     */
+    @Nullable
+    public static PermissionUser fromConfig(String key, UnmodifiableConfig table) {
+        final UUID id;
+        try {
+            id = UUID.fromString(key);
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Skipping user {} which is not a valid UUID", key);
+            return null;
+        }
+        final List<String> groups = Group.parseNames(table.get("groups"));
+        if (groups == null) {
+            LOGGER.warn("Skipping user {} with invalid groups: {}", key, table.<Object>get("groups"));
+            return null;
+        }
+        final Object permissions = table.get("permissions");
+        return new PermissionUser(id, groups,
+            permissions instanceof UnmodifiableConfig ? NodeIndex.compile((UnmodifiableConfig) permissions) : NodeIndex.EMPTY);
+    }
+}
@@ -0,0 +1,209 @@
+package dev.socketmods.socketperms.groups;
+
+import com.electronwill.nightconfig.core.UnmodifiableConfig;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import dev.socketmods.socketperms.HashTrie;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+
+/**
+ * An immutable directory of users, by UUID.
+ * <p>
+ * The directory may be backed by a {@link UserSource}, whose users are only decoded when first looked up, so a directory
+ * of many users can be loaded without materializing them. The most recently looked up users are memoized, up to a bounded
+ * number. Users added to or removed from a directory are held in memory, and take precedence over the users of the source.
+ * <p>
+ * The users held in memory are kept in a {@link HashTrie}, so {@link #with(PermissionUser)} and {@link #without(UUID)}
+ * share all but a logarithmic number of nodes with this directory instead of copying every user.
+ * <p>
+ * This class is immutable and thread-safe to access.
+ */
+public final class UserDirectory {
+    /**
+     * An empty user directory.
+     */
+    public static final UserDirectory EMPTY = new UserDirectory(null, HashTrie.empty(), HashTrie.empty(), null);
+    /**
+     * The maximum number of users decoded from a source which are memoized.
+     */
+    private static final int DECODED_MAX_USERS = 1024;
+
+    @Nullable
+    private final UserSource source;
+    private final HashTrie<UUID, PermissionUser> users;
+    /**
+     * The users of the source which have been removed from or replaced in this directory.
+     */
+    private final HashTrie<UUID, Boolean> removed;
+    /**
+     * The memoized users decoded from the source, shared by all directories with the same source, or {@code null} if there
+     * is no source.
+     */
+    @Nullable
+    private final Cache<UUID, PermissionUser> decoded;
+
+    private UserDirectory(@Nullable UserSource source, HashTrie<UUID, PermissionUser> users,
+        HashTrie<UUID, Boolean> removed, @Nullable Cache<UUID, PermissionUser> decoded) {
+        this.source = source;
+        this.users = users;
+        this.removed = removed;
+        this.decoded = decoded;
+    }
+
+    /**
+     * Return the user with the given UUID, or {@code null} if there is no such user.
+     *
+     * @param id The UUID of the user
+     *
+     * @return The user, or {@code null} if there is none with the UUID
+     */
+    @Nullable
+    public PermissionUser get(UUID id) {
+        final PermissionUser user = users.get(id);
+        if (user != null || source == null || removed.containsKey(id)) return user;
+        final PermissionUser decodedUser = decoded.getIfPresent(id);
+        if (decodedUser != null) return decodedUser;
+        final PermissionUser sourceUser = source.get(id);
+        if (sourceUser != null) decoded.put(id, sourceUser);
+        return sourceUser;
+    }
+
+    /**
+     * Return the distinct lists of groups held by the users of this directory. This may include lists of users which have
+     * been replaced or removed.
+     *
+     * @return The distinct group lists
+     */
+    public Collection<List<String>> getGroupLists() {
+        final Set<List<String>> lists = new LinkedHashSet<>();
+        if (source != null) lists.addAll(source.getGroupLists());
+        users.forEach((id, user) -> lists.add(user.getGroups()));
+        return lists;
+    }
+
+    /**
+     * Return the number of users in this directory.
+     *
+     * @return The number of users
+     */
+    public int size() {
+        return users.size() + (source != null ? source.size() - removed.size() : 0);
+    }
+
+    /**
+     * Call the given action for every user in this directory, decoding the users of the source without memoizing them.
+     *
+     * @param action The action to call with each user
+     */
+    public void forEach(Consumer<PermissionUser> action) {
+        if (source != null) {
+            source.forEach(user -> {
+                if (!users.containsKey(user.getId()) && !removed.containsKey(user.getId())) action.accept(user);
+            });
+        }
+        users.forEach((id, user) -> action.accept(user));
+    }
+
+    /**
+     * Return a new directory with the given user added, replacing any user with the same UUID.
+     *
+     * @param user The user to add
+     *
+     * @return The new directory
+     */
+    public UserDirectory with(PermissionUser user) {
+        return new UserDirectory(source, users.with(user.getId(), user), shadow(removed, user.getId()), decoded);
+    }
+
+    /**
+     * Return a new directory with the user of the given UUID removed.
+     *
+     * @param id The UUID of the user to remove
+     *
+     * @return The new directory
+     */
+    public UserDirectory without(UUID id) {
+        return new UserDirectory(source, users.without(id), shadow(removed, id), decoded);
+    }
+
+    /**
+     * Return a new directory with the users of the given UUIDs removed.
+     *
+     * @param ids The UUIDs of the users to remove
+     *
+     * @return The new directory
+     */
+    public UserDirectory without(Collection<UUID> ids) {
+        HashTrie<UUID, PermissionUser> users = this.users;
+        HashTrie<UUID, Boolean> removed = this.removed;
+        for (UUID id : ids) {
+            users = users.without(id);
+            removed = shadow(removed, id);
+        }
+        return new UserDirectory(source, users, removed, decoded);
+    }
+
+    /**
+     * Return the given removed users with the given UUID added if the source has a user with the UUID, so that only users
+     * of the source are counted as removed.
+     */
+    private HashTrie<UUID, Boolean> shadow(HashTrie<UUID, Boolean> removed, UUID id) {
+        if (source == null || removed.containsKey(id) || !source.contains(id)) return removed;
+        return removed.with(id, Boolean.TRUE);
+    }
+
+    /**
+     * Create a directory of the given users. If several users have the same UUID, the last one wins.
+     *
+     * @param users The users
+     *
+     * @return The user directory
+     */
+    public static UserDirectory of(Iterable<PermissionUser> users) {
+        HashTrie<UUID, PermissionUser> trie = HashTrie.empty();
+        for (PermissionUser user : users) {
+            trie = trie.with(user.getId(), user);
+        }
+        return create(trie);
+    }
+
+    /**
+     * Create a directory backed by the given source, whose users are decoded on demand.
+     *
+     * @param source The user source
+     *
+     * @return The user directory
+     */
+    public static UserDirectory of(UserSource source) {
+        return new UserDirectory(source, HashTrie.empty(), HashTrie.empty(),
+            CacheBuilder.newBuilder().maximumSize(DECODED_MAX_USERS).build());
+    }
+
+    /**
+     * Parse a directory from the given users section of the config, skipping invalid users with a warning.
+     *
+     * @param section The users section, keyed by UUID
+     *
+     * @return The user directory
+     */
+    public static UserDirectory fromConfig(UnmodifiableConfig section) {
+        HashTrie<UUID, PermissionUser> trie = HashTrie.empty();
+        for (UnmodifiableConfig.Entry entry : section.entrySet()) {
+            if (!(entry.getValue() instanceof UnmodifiableConfig)) continue;
+            final PermissionUser user = PermissionUser.fromConfig(entry.getKey(), entry.getValue());
+            if (user != null) trie = trie.with(user.getId(), user);
+        }
+        return create(trie);
+    }
+
+    private static UserDirectory create(HashTrie<UUID, PermissionUser> users) {
+        return users.isEmpty() ? EMPTY : new UserDirectory(null, users, HashTrie.empty(), null);
+    }
+}
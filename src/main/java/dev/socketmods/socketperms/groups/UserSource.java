@@ -0,0 +1,54 @@
+package dev.socketmods.socketperms.groups;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+
+/**
+ * A read-only source of users which are decoded on demand, such as from a binary snapshot, rather than held in memory.
+ * <p>
+ * Implementations must be thread-safe, and must return equal users for the same UUID on every call.
+ */
+public interface UserSource {
+    /**
+     * Return the user with the given UUID, or {@code null} if there is no such user.
+     *
+     * @param id The UUID of the user
+     *
+     * @return The user, or {@code null} if there is none with the UUID
+     */
+    @Nullable
+    PermissionUser get(UUID id);
+
+    /**
+     * Return whether this source has a user with the given UUID, without decoding the user.
+     *
+     * @param id The UUID of the user
+     *
+     * @return {@code true} if there is a user with the UUID, otherwise {@code false}
+     */
+    boolean contains(UUID id);
+
+    /**
+     * Return the distinct lists of groups held by the users of this source, without decoding the users.
+     *
+     * @return The distinct group lists
+     */
+    Collection<List<String>> getGroupLists();
+
+    /**
+     * Return the number of users in this source.
+     *
+     * @return The number of users
+     */
+    int size();
+
+    /**
+     * Decode and call the given action for every user of this source.
+     *
+     * @param action The action to call with each user
+     */
+    void forEach(Consumer<PermissionUser> action);
+}
@@ -0,0 +1,260 @@
+package dev.socketmods.socketperms.regions;
+
+import com.electronwill.nightconfig.core.UnmodifiableConfig;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import dev.socketmods.socketperms.NodeIndex;
+import net.minecraft.util.RegistryKey;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.registry.Registry;
+import net.minecraft.world.World;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * A cuboid region of a dimension, with its own permission values.
+ * <p>
+ * Regions are declared in the {@code regions} array of tables in the permissions config. Each region has a unique {@code
+ * name}, the {@code world} (dimension ID) it is in, two opposite corners {@code from} and {@code to} (inclusive, as lists of
+ * three integers), an optional {@code priority} (default {@code 0}), an optional list of {@code exempt_groups}, and a
+ * {@code permissions} table laid out like the top-level permissions:
+ * <pre>
+ * [[regions]]
+ * name = "spawn"
+ * world = "minecraft:overworld"
+ * from = [-64, 0, -64]
+ * to = [64, 255, 64]
+ * priority = 10
+ * exempt_groups = ["admin"]
+ * [regions.permissions.socketperms]
+ * "interact.block" = false
+ * </pre>
+ * <p>
+ * The values of a region take precedence over the values of users and groups, including the overrides of a user. A user
+ * who directly holds any of the exempt groups of a region is not affected by the region, so that, for example,
+ * administrators can build at spawn.
+ * <p>
+ * This class is immutable and thread-safe to access.
+ */
+public final class Region {
+    private static final Logger LOGGER = LogManager.getLogger();
+    /**
+     * Orders regions by descending priority, then by name.
+     */
+    static final Comparator<Region> PRECEDENCE = Comparator.comparingInt(Region::getPriority).reversed()
+        .thenComparing(Region::getName);
+
+    private final String name;
+    private final RegistryKey<World> dimension;
+    private final int minX;
+    private final int minY;
+    private final int minZ;
+    private final int maxX;
+    private final int maxY;
+    private final int maxZ;
+    private final int priority;
+    private final Set<String> exemptGroups;
+    private final NodeIndex permissions;
+
+    /**
+     * Constructs a new {@code Region}. The given corners may be in any order.
+     *
+     * @param name        The unique name of the region
+     * @param dimension   The dimension of the region
+     * @param x1          The X coordinate of the first corner
+     * @param y1          The Y coordinate of the first corner
+     * @param z1          The Z coordinate of the first corner
+     * @param x2          The X coordinate of the second corner
+     * @param y2          The Y coordinate of the second corner
+     * @param z2          The Z coordinate of the second corner
+     * @param priority    The priority of the region over overlapping regions
+     * @param permissions The permission values of the region
+     */
+    public Region(String name, RegistryKey<World> dimension, int x1, int y1, int z1, int x2, int y2, int z2, int priority,
+        NodeIndex permissions) {
+        this(name, dimension, x1, y1, z1, x2, y2, z2, priority, Collections.emptySet(), permissions);
+    }
+
+    /**
+     * Constructs a new {@code Region} which does not affect the users holding any of the given groups. The given corners may
+     * be in any order.
+     *
+     * @param name         The unique name of the region
+     * @param dimension    The dimension of the region
+     * @param x1           The X coordinate of the first corner
+     * @param y1           The Y coordinate of the first corner
+     * @param z1           The Z coordinate of the first corner
+     * @param x2           The X coordinate of the second corner
+     * @param y2           The Y coordinate of the second corner
+     * @param z2           The Z coordinate of the second corner
+     * @param priority     The priority of the region over overlapping regions
+     * @param exemptGroups The groups whose users are exempt from the region
+     * @param permissions  The permission values of the region
+     */
+    public Region(String name, RegistryKey<World> dimension, int x1, int y1, int z1, int x2, int y2, int z2, int priority,
+        Set<String> exemptGroups, NodeIndex permissions) {
+        this.name = Preconditions.checkNotNull(name, "Name must not be null");
+        this.dimension = Preconditions.checkNotNull(dimension, "Dimension must not be null");
+        this.minX = Math.min(x1, x2);
+        this.minY = Math.min(y1, y2);
+        this.minZ = Math.min(z1, z2);
+        this.maxX = Math.max(x1, x2);
+        this.maxY = Math.max(y1, y2);
+        this.maxZ = Math.max(z1, z2);
+        this.priority = priority;
+        this.exemptGroups = ImmutableSet.copyOf(exemptGroups);
+        this.permissions = Preconditions.checkNotNull(permissions, "Permissions must not be null");
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public RegistryKey<World> getDimension() {
+        return dimension;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public Set<String> getExemptGroups() {
+        return exemptGroups;
+    }
+
+    public NodeIndex getPermissions() {
+        return permissions;
+    }
+
+    /**
+     * Return {@code true} if a user holding the given groups is exempt from this region, otherwise {@code false}.
+     *
+     * @param groups The groups held by the user
+     *
+     * @return {@code true} if any of the groups is exempt, otherwise {@code false}
+     */
+    public boolean exempts(List<String> groups) {
+        if (exemptGroups.isEmpty()) return false;
+        for (String group : groups) {
+            if (exemptGroups.contains(group)) return true;
+        }
+        return false;
+    }
+
+    int getMinChunkX() {
+        return minX >> 4;
+    }
+
+    int getMinChunkZ() {
+        return minZ >> 4;
+    }
+
+    int getMaxChunkX() {
+        return maxX >> 4;
+    }
+
+    int getMaxChunkZ() {
+        return maxZ >> 4;
+    }
+
+    /**
+     * Return the number of chunk columns overlapped by this region.
+     *
+     * @return The number of overlapped chunks
+     */
+    long getChunkCount() {
+        return (long) (getMaxChunkX() - getMinChunkX() + 1) * (getMaxChunkZ() - getMinChunkZ() + 1);
+    }
+
+    /**
+     * Return {@code true} if the given block position is within this region, otherwise {@code false}.
+     *
+     * @param x The X coordinate
+     * @param y The Y coordinate
+     * @param z The Z coordinate
+     *
+     * @return {@code true} if the position is within this region, otherwise {@code false}
+     */
+    public boolean contains(int x, int y, int z) {
+        return x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ;
+    }
+
+    @Override
+    public String toString() {
+        return "Region[" + name + " in " + dimension.getLocation() + " from " + minX + "," + minY + "," + minZ + " to " + maxX
+            + "," + maxY + "," + maxZ + ", priority=" + priority + (exemptGroups.isEmpty() ? "" : ", exempt=" + exemptGroups)
+            + "]";
+    }
+
+    /**
+     * Parse a region from the given region table of the config, or return {@code null} with a warning if the table is not a
+     * valid region.
+     *
+     * @param index The index of the table in the regions array, for logging
+     * @param table The region table
+     *
+     * @return The parsed region, or {@code null} if the table is not valid
+     */
+    @Nullable
+    public static Region fromConfig(int index, UnmodifiableConfig table) {
+        final Object name = table.get("name");
+        if (!(name instanceof String)) {
+            LOGGER.warn("Skipping region #{} with missing name", index);
+            return null;
+        }
+        final Object world = table.get("world");
+        final ResourceLocation dimension = world instanceof String ? ResourceLocation.tryCreate((String) world) : null;
+        if (dimension == null) {
+            LOGGER.warn("Skipping region {} with missing or invalid world: {}", name, world);
+            return null;
+        }
+        final int[] from = parseCorner(table.get("from"));
+        final int[] to = parseCorner(table.get("to"));
+        if (from == null || to == null) {
+            LOGGER.warn("Skipping region {} with missing or invalid corners", name);
+            return null;
+        }
+        final Object priority = table.get("priority");
+        if (priority != null && !(priority instanceof Number)) {
+            LOGGER.warn("Skipping region {} with invalid priority: {}", name, priority);
+            return null;
+        }
+        final Object exempt = table.get("exempt_groups");
+        final ImmutableSet.Builder<String> exemptGroups = ImmutableSet.builder();
+        if (exempt instanceof List) {
+            for (Object group : (List<?>) exempt) {
+                if (group instanceof String) {
+                    exemptGroups.add((String) group);
+                } else {
+                    LOGGER.warn("Ignoring invalid exempt group of region {}: {}", name, group);
+                }
+            }
+        } else if (exempt != null) {
+            LOGGER.warn("Skipping region {} with invalid exempt groups: {}", name, exempt);
+            return null;
+        }
+        final Object permissions = table.get("permissions");
+        return new Region((String) name, RegistryKey.getOrCreateKey(Registry.WORLD_KEY, dimension),
+            from[0], from[1], from[2], to[0], to[1], to[2], priority != null ? ((Number) priority).intValue() : 0,
+            exemptGroups.build(), permissions instanceof UnmodifiableConfig
+                ? NodeIndex.compile((UnmodifiableConfig) permissions) : NodeIndex.EMPTY);
+    }
+
+    @Nullable
+    private static int[] parseCorner(@Nullable Object value) {
+        if (!(value instanceof List) || ((List<?>) value).size() != 3) return null;
+        final int[] corner = new int[3];
+        for (int i = 0; i < 3; i++) {
+            final Object coordinate = ((List<?>) value).get(i);
+            if (!(coordinate instanceof Number)) return null;
+            corner[i] = ((Number) coordinate).intValue();
+        }
+        return corner;
+    }
+}
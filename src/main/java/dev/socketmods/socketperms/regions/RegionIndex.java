@@ -0,0 +1,480 @@
+package dev.socketmods.socketperms.regions;
+
+import com.google.common.collect.ImmutableList;
+import dev.socketmods.socketperms.HashTrie;
+import dev.socketmods.socketperms.api.IPermissionValue;
+import dev.socketmods.socketperms.api.PermissionNode;
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.util.RegistryKey;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.World;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * A spatial index of {@link Region}s, answering which regions contain a position in constant time.
+ * <p>
+ * Regions are indexed per dimension by the chunk columns they overlap. Chunks are grouped into super-cells of 32 by 32
+ * chunks, each holding a map of chunk positions to the regions overlapping that chunk, sorted by {@linkplain
+ * Region#PRECEDENCE precedence}. A query is a lookup of the super-cell in a {@link HashTrie} and a hash probe on a
+ * primitive {@code long} key, followed by a scan of the few regions overlapping that chunk. Regions which overlap more
+ * than {@value #LARGE_REGION_CHUNKS} chunks are instead indexed by the super-cells they overlap, so that large regions do
+ * not flood the chunk cells, and cost one more lookup per query. Only regions which overlap more than {@value
+ * #HUGE_REGION_SUPER_CELLS} super-cells, such as regions spanning a whole world, are kept in a per-dimension list which is
+ * scanned on every query.
+ * <p>
+ * Regions may {@linkplain Region#exempts(List) exempt} users by their groups; an exempt user is matched against the
+ * regions with lower precedence instead.
+ * <p>
+ * The index is immutable and thread-safe to query. The regions by name and the super-cells are held in {@link HashTrie}s,
+ * so {@link #with(Region)} and {@link #without(String)} return a new index which copies only the super-cells the region
+ * overlaps and the trie paths leading to them, and shares everything else with this index. A change therefore costs time
+ * proportional to the size of the region, and logarithmic in the number of regions and super-cells, rather than a rebuild
+ * of the index.
+ */
+public final class RegionIndex {
+    /**
+     * The shift from chunk coordinates to super-cell coordinates.
+     */
+    private static final int SUPER_CELL_SHIFT = 5;
+    /**
+     * The number of chunks above which a region is kept in the large region list instead of the cells.
+     */
+    static final int LARGE_REGION_CHUNKS = 4096;
+    /**
+     * The number of super-cells above which a region is kept in the huge region list instead of the super-cells.
+     */
+    static final int HUGE_REGION_SUPER_CELLS = 4096;
+    private static final Region[] NO_REGIONS = new Region[0];
+    /**
+     * An empty region index.
+     */
+    public static final RegionIndex EMPTY = new RegionIndex(HashTrie.empty(), new HashMap<>(), new int[0], 0, 0);
+
+    private final HashTrie<String, Region> byName;
+    /**
+     * The index of each dimension. There are only a few dimensions, so this map is copied whole on every change.
+     */
+    private final Map<RegistryKey<World>, DimensionIndex> dimensions;
+    /**
+     * The number of regions which define a value for each node, indexed by the ID of the node handle.
+     */
+    private final int[] nodeRefs;
+    /**
+     * The number of regions with wildcard grants, which may define a value for any node.
+     */
+    private final int wildcardRegions;
+    /**
+     * The number of regions which exempt any groups.
+     */
+    private final int exemptingRegions;
+
+    private RegionIndex(HashTrie<String, Region> byName, Map<RegistryKey<World>, DimensionIndex> dimensions,
+        int[] nodeRefs, int wildcardRegions, int exemptingRegions) {
+        this.byName = byName;
+        this.dimensions = dimensions;
+        this.nodeRefs = nodeRefs;
+        this.wildcardRegions = wildcardRegions;
+        this.exemptingRegions = exemptingRegions;
+    }
+
+    /**
+     * Return {@code true} if there are no regions in this index, otherwise {@code false}.
+     *
+     * @return {@code true} if there are no regions, otherwise {@code false}
+     */
+    public boolean isEmpty() {
+        return byName.isEmpty();
+    }
+
+    /**
+     * Return the number of regions in this index.
+     *
+     * @return The number of regions
+     */
+    public int size() {
+        return byName.size();
+    }
+
+    /**
+     * Return the region with the given name, or {@code null} if there is no such region.
+     *
+     * @param name The name of the region
+     *
+     * @return The region, or {@code null} if there is none with the name
+     */
+    @Nullable
+    public Region getRegion(String name) {
+        return byName.get(name);
+    }
+
+    /**
+     * Return {@code true} if any region exempts users by their groups, otherwise {@code false}. If not, the groups passed to
+     * {@link #get(PermissionNode, RegistryKey, int, int, int, List)} are never consulted.
+     *
+     * @return {@code true} if any region exempts groups, otherwise {@code false}
+     */
+    public boolean hasExemptions() {
+        return exemptingRegions > 0;
+    }
+
+    /**
+     * Return {@code true} if any region may define a value for the given permission node handle, otherwise {@code false}.
+     * This is always {@code true} if any region has wildcard grants.
+     *
+     * @param node The permission node handle
+     *
+     * @return {@code true} if any region may define a value for the node, otherwise {@code false}
+     */
+    public boolean definesNode(PermissionNode node) {
+        if (wildcardRegions > 0) return true;
+        final int id = node.getId();
+        return id < nodeRefs.length && nodeRefs[id] > 0;
+    }
+
+    /**
+     * Return the value of the given permission node from the region with the highest precedence which contains the given
+     * position, defines a value for the node and does not exempt the given groups, or {@code null} if there is no such
+     * region.
+     *
+     * @param node      The permission node handle
+     * @param dimension The dimension of the position
+     * @param x         The X coordinate
+     * @param y         The Y coordinate
+     * @param z         The Z coordinate
+     * @param groups    The groups of the user, which are only consulted if any region {@linkplain #hasExemptions()
+     *                  exempts groups}
+     *
+     * @return The value of the node from the containing region, or {@code null} if there is none
+     */
+    @Nullable
+    public IPermissionValue get(PermissionNode node, RegistryKey<World> dimension, int x, int y, int z,
+        List<String> groups) {
+        if (!definesNode(node)) return null;
+        final DimensionIndex index = dimensions.get(dimension);
+        if (index == null) return null;
+
+        final int chunkX = x >> 4;
+        final int chunkZ = z >> 4;
+        Region found = first(index.getCell(chunkX, chunkZ), null, node, x, y, z, groups);
+        found = first(index.getLargeCell(chunkX, chunkZ), found, node, x, y, z, groups);
+        found = first(index.huge, found, node, x, y, z, groups);
+        return found != null ? found.getPermissions().get(node) : null;
+    }
+
+    /**
+     * Return the first of the given regions, sorted by precedence, which applies to the node at the position and has
+     * precedence over the region found so far, or else the region found so far.
+     */
+    @Nullable
+    private Region first(Region[] regions, @Nullable Region found, PermissionNode node, int x, int y, int z,
+        List<String> groups) {
+        for (Region region : regions) {
+            if (found != null && Region.PRECEDENCE.compare(region, found) > 0) break;
+            if (region.contains(x, y, z) && !region.getPermissions().get(node).isEmpty()
+                && (exemptingRegions == 0 || !region.exempts(groups))) {
+                return region;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Return all regions which contain the given position, in order of precedence.
+     *
+     * @param dimension The dimension of the position
+     * @param x         The X coordinate
+     * @param y         The Y coordinate
+     * @param z         The Z coordinate
+     *
+     * @return The regions containing the position
+     */
+    public List<Region> getRegionsAt(RegistryKey<World> dimension, int x, int y, int z) {
+        final DimensionIndex index = dimensions.get(dimension);
+        if (index == null) return ImmutableList.of();
+        final List<Region> regions = new ArrayList<>();
+        for (Region region : index.getCell(x >> 4, z >> 4)) {
+            if (region.contains(x, y, z)) regions.add(region);
+        }
+        for (Region region : index.getLargeCell(x >> 4, z >> 4)) {
+            if (region.contains(x, y, z)) regions.add(region);
+        }
+        for (Region region : index.huge) {
+            if (region.contains(x, y, z)) regions.add(region);
+        }
+        regions.sort(Region.PRECEDENCE);
+        return regions;
+    }
+
+    /**
+     * Return a new index with the given region added, replacing any region with the same name.
+     *
+     * @param region The region to add
+     *
+     * @return The new index
+     */
+    public RegionIndex with(Region region) {
+        final RegionIndex base = byName.containsKey(region.getName()) ? without(region.getName()) : this;
+        final Map<RegistryKey<World>, DimensionIndex> dimensions = new HashMap<>(base.dimensions);
+        final DimensionIndex dimension = dimensions.getOrDefault(region.getDimension(), DimensionIndex.EMPTY);
+        dimensions.put(region.getDimension(), dimension.with(region, new HashMap<>()));
+        return new RegionIndex(base.byName.with(region.getName(), region), dimensions,
+            updateRefs(base.nodeRefs, region, 1), base.wildcardRegions + wildcardDelta(region, 1),
+            base.exemptingRegions + exemptingDelta(region, 1));
+    }
+
+    /**
+     * Return a new index with the region of the given name removed, or this index if there is no such region.
+     *
+     * @param name The name of the region to remove
+     *
+     * @return The new index
+     */
+    public RegionIndex without(String name) {
+        final Region region = byName.get(name);
+        if (region == null) return this;
+        final Map<RegistryKey<World>, DimensionIndex> dimensions = new HashMap<>(this.dimensions);
+        final DimensionIndex dimension = dimensions.get(region.getDimension()).without(region);
+        if (dimension.isEmpty()) {
+            dimensions.remove(region.getDimension());
+        } else {
+            dimensions.put(region.getDimension(), dimension);
+        }
+        return new RegionIndex(byName.without(name), dimensions, updateRefs(nodeRefs, region, -1),
+            wildcardRegions + wildcardDelta(region, -1), exemptingRegions + exemptingDelta(region, -1));
+    }
+
+    /**
+     * Build a region index from the given regions. If several regions have the same name, the last one wins.
+     *
+     * @param regions The regions
+     *
+     * @return The built region index
+     */
+    public static RegionIndex of(Iterable<Region> regions) {
+        final Map<String, Region> unique = new LinkedHashMap<>();
+        for (Region region : regions) {
+            unique.put(region.getName(), region);
+        }
+        if (unique.isEmpty()) return EMPTY;
+
+        HashTrie<String, Region> byName = HashTrie.empty();
+        final Map<RegistryKey<World>, DimensionIndex> dimensions = new HashMap<>();
+        // The super-cells created by this build are not yet shared, so they are kept across regions and mutated in place
+        final Map<RegistryKey<World>, Map<Long, Long2ObjectOpenHashMap<Region[]>>> owned = new HashMap<>();
+        int[] nodeRefs = new int[0];
+        int wildcardRegions = 0;
+        int exemptingRegions = 0;
+        for (Region region : unique.values()) {
+            byName = byName.with(region.getName(), region);
+            final DimensionIndex dimension = dimensions.getOrDefault(region.getDimension(), DimensionIndex.EMPTY);
+            dimensions.put(region.getDimension(),
+                dimension.with(region, owned.computeIfAbsent(region.getDimension(), k -> new HashMap<>())));
+            nodeRefs = updateRefs(nodeRefs, region, 1);
+            wildcardRegions += wildcardDelta(region, 1);
+            exemptingRegions += exemptingDelta(region, 1);
+        }
+        return new RegionIndex(byName, dimensions, nodeRefs, wildcardRegions, exemptingRegions);
+    }
+
+    private static int wildcardDelta(Region region, int delta) {
+        return region.getPermissions().hasWildcards() ? delta : 0;
+    }
+
+    private static int exemptingDelta(Region region, int delta) {
+        return region.getExemptGroups().isEmpty() ? 0 : delta;
+    }
+
+    private static int[] updateRefs(int[] nodeRefs, Region region, int delta) {
+        final Set<ResourceLocation> nodes = region.getPermissions().getNodes();
+        int maxId = nodeRefs.length - 1;
+        for (ResourceLocation node : nodes) {
+            maxId = Math.max(maxId, PermissionNode.of(node).getId());
+        }
+        final int[] updated = Arrays.copyOf(nodeRefs, maxId + 1);
+        for (ResourceLocation node : nodes) {
+            updated[PermissionNode.of(node).getId()] += delta;
+        }
+        return updated;
+    }
+
+    /**
+     * The index of the regions of a single dimension.
+     * <p>
+     * The super-cells are keyed by their mixed position, a bijection of the position packed into a {@code long}, as the
+     * hash code of the packed position itself collides along diagonals.
+     */
+    static final class DimensionIndex {
+        static final DimensionIndex EMPTY = new DimensionIndex(HashTrie.empty(), HashTrie.empty(), NO_REGIONS);
+
+        /**
+         * Super-cell key to (chunk position to regions overlapping that chunk). The chunk maps are never mutated once
+         * shared.
+         */
+        private final HashTrie<Long, Long2ObjectOpenHashMap<Region[]>> superCells;
+        /**
+         * Super-cell key to the large regions overlapping that super-cell.
+         */
+        private final HashTrie<Long, Region[]> largeCells;
+        private final Region[] huge;
+
+        private DimensionIndex(HashTrie<Long, Long2ObjectOpenHashMap<Region[]>> superCells,
+            HashTrie<Long, Region[]> largeCells, Region[] huge) {
+            this.superCells = superCells;
+            this.largeCells = largeCells;
+            this.huge = huge;
+        }
+
+        boolean isEmpty() {
+            return superCells.isEmpty() && largeCells.isEmpty() && huge.length == 0;
+        }
+
+        Region[] getCell(int chunkX, int chunkZ) {
+            final Long2ObjectOpenHashMap<Region[]> superCell = superCells.get(superCellKey(chunkX, chunkZ));
+            if (superCell == null) return NO_REGIONS;
+            final Region[] cell = superCell.get(ChunkPos.asLong(chunkX, chunkZ));
+            return cell != null ? cell : NO_REGIONS;
+        }
+
+        Region[] getLargeCell(int chunkX, int chunkZ) {
+            final Region[] cell = largeCells.get(superCellKey(chunkX, chunkZ));
+            return cell != null ? cell : NO_REGIONS;
+        }
+
+        /**
+         * Return a new index with the given region added. The chunk maps of the given owned super-cells are not shared with
+         * any other index, so they are mutated in place; other super-cells are copied, and added to the owned super-cells.
+         */
+        DimensionIndex with(Region region, Map<Long, Long2ObjectOpenHashMap<Region[]>> owned) {
+            if (getSuperCellCount(region) > HUGE_REGION_SUPER_CELLS) {
+                return new DimensionIndex(superCells, largeCells, insert(huge, region));
+            }
+            if (region.getChunkCount() > LARGE_REGION_CHUNKS) {
+                HashTrie<Long, Region[]> largeCells = this.largeCells;
+                final int maxX = region.getMaxChunkX() >> SUPER_CELL_SHIFT;
+                final int maxZ = region.getMaxChunkZ() >> SUPER_CELL_SHIFT;
+                for (int x = region.getMinChunkX() >> SUPER_CELL_SHIFT; x <= maxX; x++) {
+                    for (int z = region.getMinChunkZ() >> SUPER_CELL_SHIFT; z <= maxZ; z++) {
+                        final Long key = HashCommon.mix(ChunkPos.asLong(x, z));
+                        final Region[] cell = largeCells.get(key);
+                        largeCells = largeCells.with(key, insert(cell != null ? cell : NO_REGIONS, region));
+                    }
+                }
+                return new DimensionIndex(superCells, largeCells, huge);
+            }
+            HashTrie<Long, Long2ObjectOpenHashMap<Region[]>> superCells = this.superCells;
+            for (int chunkX = region.getMinChunkX(); chunkX <= region.getMaxChunkX(); chunkX++) {
+                for (int chunkZ = region.getMinChunkZ(); chunkZ <= region.getMaxChunkZ(); chunkZ++) {
+                    final Long key = superCellKey(chunkX, chunkZ);
+                    Long2ObjectOpenHashMap<Region[]> superCell = owned.get(key);
+                    if (superCell == null) {
+                        // Copy on first write, as the super-cell may be shared with other indexes
+                        final Long2ObjectOpenHashMap<Region[]> shared = superCells.get(key);
+                        superCell = shared != null ? new Long2ObjectOpenHashMap<>(shared)
+                            : new Long2ObjectOpenHashMap<>();
+                        owned.put(key, superCell);
+                    }
+                    if (superCells.get(key) != superCell) superCells = superCells.with(key, superCell);
+                    final long chunk = ChunkPos.asLong(chunkX, chunkZ);
+                    final Region[] cell = superCell.get(chunk);
+                    superCell.put(chunk, insert(cell != null ? cell : NO_REGIONS, region));
+                }
+            }
+            return new DimensionIndex(superCells, largeCells, huge);
+        }
+
+        /**
+         * Return a new index with the given region removed, copying the super-cells it overlaps.
+         */
+        DimensionIndex without(Region region) {
+            if (getSuperCellCount(region) > HUGE_REGION_SUPER_CELLS) {
+                return new DimensionIndex(superCells, largeCells, remove(huge, region));
+            }
+            if (region.getChunkCount() > LARGE_REGION_CHUNKS) {
+                HashTrie<Long, Region[]> largeCells = this.largeCells;
+                final int maxX = region.getMaxChunkX() >> SUPER_CELL_SHIFT;
+                final int maxZ = region.getMaxChunkZ() >> SUPER_CELL_SHIFT;
+                for (int x = region.getMinChunkX() >> SUPER_CELL_SHIFT; x <= maxX; x++) {
+                    for (int z = region.getMinChunkZ() >> SUPER_CELL_SHIFT; z <= maxZ; z++) {
+                        final Long key = HashCommon.mix(ChunkPos.asLong(x, z));
+                        final Region[] cell = largeCells.get(key);
+                        if (cell == null) continue;
+                        final Region[] updated = remove(cell, region);
+                        largeCells = updated.length != 0 ? largeCells.with(key, updated) : largeCells.without(key);
+                    }
+                }
+                return new DimensionIndex(superCells, largeCells, huge);
+            }
+            final Map<Long, Long2ObjectOpenHashMap<Region[]>> copied = new HashMap<>();
+            for (int chunkX = region.getMinChunkX(); chunkX <= region.getMaxChunkX(); chunkX++) {
+                for (int chunkZ = region.getMinChunkZ(); chunkZ <= region.getMaxChunkZ(); chunkZ++) {
+                    final Long key = superCellKey(chunkX, chunkZ);
+                    Long2ObjectOpenHashMap<Region[]> superCell = copied.get(key);
+                    if (superCell == null) {
+                        final Long2ObjectOpenHashMap<Region[]> shared = superCells.get(key);
+                        if (shared == null) continue;
+                        superCell = new Long2ObjectOpenHashMap<>(shared);
+                        copied.put(key, superCell);
+                    }
+                    final long chunk = ChunkPos.asLong(chunkX, chunkZ);
+                    final Region[] cell = superCell.get(chunk);
+                    if (cell == null) continue;
+                    final Region[] updated = remove(cell, region);
+                    if (updated.length != 0) {
+                        superCell.put(chunk, updated);
+                    } else {
+                        superCell.remove(chunk);
+                    }
+                }
+            }
+            HashTrie<Long, Long2ObjectOpenHashMap<Region[]>> superCells = this.superCells;
+            for (Map.Entry<Long, Long2ObjectOpenHashMap<Region[]>> entry : copied.entrySet()) {
+                superCells = entry.getValue().isEmpty() ? superCells.without(entry.getKey())
+                    : superCells.with(entry.getKey(), entry.getValue());
+            }
+            return new DimensionIndex(superCells, largeCells, huge);
+        }
+
+        /**
+         * Return the key of the super-cell containing the given chunk.
+         */
+        private static Long superCellKey(int chunkX, int chunkZ) {
+            return HashCommon.mix(ChunkPos.asLong(chunkX >> SUPER_CELL_SHIFT, chunkZ >> SUPER_CELL_SHIFT));
+        }
+
+        private static long getSuperCellCount(Region region) {
+            return (long) ((region.getMaxChunkX() >> SUPER_CELL_SHIFT) - (region.getMinChunkX() >> SUPER_CELL_SHIFT) + 1)
+                * ((region.getMaxChunkZ() >> SUPER_CELL_SHIFT) - (region.getMinChunkZ() >> SUPER_CELL_SHIFT) + 1);
+        }
+        private static Region[] insert(Region[] regions, Region region) {
+            int index = Arrays.binarySearch(regions, region, Region.PRECEDENCE);
+            if (index < 0) index = -index - 1;
+            final Region[] updated = new Region[regions.length + 1];
+            System.arraycopy(regions, 0, updated, 0, index);
+            updated[index] = region;
+            System.arraycopy(regions, index, updated, index + 1, regions.length - index);
+            return updated;
+        }
+
+        private static Region[] remove(Region[] regions, Region region) {
+            for (int i = 0; i < regions.length; i++) {
+                if (regions[i] == region) {
+                    final Region[] updated = new Region[regions.length - 1];
+                    System.arraycopy(regions, 0, updated, 0, i);
+                    System.arraycopy(regions, i + 1, updated, i, regions.length - i - 1);
+                    return updated;
+                }
+            }
+            return regions;
+        }
+    }
+}
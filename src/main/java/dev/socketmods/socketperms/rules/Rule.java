@@ -0,0 +1,26 @@
+package dev.socketmods.socketperms.rules;
+
+import dev.socketmods.socketperms.api.IPermissionValue;
+import net.minecraft.util.ResourceLocation;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A parsed permission rule, which grants a value to a permission node when all of its conditions match the context.
+ * <p>
+ * Each condition holds a set of allowed discriminators, and matches if the discriminator extracted from the context is any
+ * of them. A condition which is absent from the rule matches any context.
+ */
+final class Rule {
+    final ResourceLocation node;
+    final IPermissionValue value;
+    final Map<RuleCondition, Set<Object>> conditions;
+
+    Rule(ResourceLocation node, IPermissionValue value, EnumMap<RuleCondition, Set<Object>> conditions) {
+        this.node = node;
+        this.value = value;
+        this.conditions = conditions;
+    }
+}
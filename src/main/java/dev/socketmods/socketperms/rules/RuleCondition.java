@@ -0,0 +1,120 @@
+package dev.socketmods.socketperms.rules;
+
+import dev.socketmods.socketperms.api.context.ContextKey;
+import dev.socketmods.socketperms.api.context.PermissionContext;
+import dev.socketmods.socketperms.api.context.StandardContextKeys;
+import net.minecraft.block.BlockState;
+import net.minecraft.util.Direction;
+import net.minecraft.util.RegistryKey;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.registry.Registry;
+import net.minecraft.world.World;
+import net.minecraftforge.registries.ForgeRegistries;
+
+import javax.annotation.Nullable;
+
+/**
+ * A kind of condition which a permission rule may place on the permission context.
+ * <p>
+ * Each condition reads one {@linkplain #getContextKey() context key}, and reduces its value to a <em>discriminator</em>: an
+ * interned object which can be compared by identity, such as a dimension {@link RegistryKey}, a {@link
+ * net.minecraft.block.Block} or a {@link Direction}. Condition values in the config are parsed into discriminators when rules
+ * are compiled, so matching a rule against a context needs no string comparisons.
+ * <p>
+ * Conditions are declared in order from most to least selective. When rules are compiled into a {@link RuleTree}, the tree
+ * branches on conditions in this order.
+ */
+public enum RuleCondition {
+    /**
+     * Matches the block of the {@link StandardContextKeys#TARGET_BLOCK_STATE target block state}, by registry name.
+     */
+    BLOCK("block", StandardContextKeys.TARGET_BLOCK_STATE) {
+        @Nullable
+        @Override
+        Object parse(String value) {
+            final ResourceLocation id = ResourceLocation.tryCreate(value);
+            return id != null && ForgeRegistries.BLOCKS.containsKey(id) ? ForgeRegistries.BLOCKS.getValue(id) : null;
+        }
+
+        @Nullable
+        @Override
+        Object extract(PermissionContext context) {
+            final BlockState state = context.getNullable(StandardContextKeys.TARGET_BLOCK_STATE);
+            return state != null ? state.getBlock() : null;
+        }
+    },
+    /**
+     * Matches the {@link StandardContextKeys#TARGET_BLOCK_FACE target block face}, by name (such as {@code up}).
+     */
+    FACE("face", StandardContextKeys.TARGET_BLOCK_FACE) {
+        @Nullable
+        @Override
+        Object parse(String value) {
+            return Direction.byName(value);
+        }
+
+        @Nullable
+        @Override
+        Object extract(PermissionContext context) {
+            return context.getNullable(StandardContextKeys.TARGET_BLOCK_FACE);
+        }
+    },
+    /**
+     * Matches the dimension of the {@link StandardContextKeys#WORLD world}, by dimension ID (such as {@code
+     * minecraft:the_nether}).
+     */
+    WORLD("world", StandardContextKeys.WORLD) {
+        @Nullable
+        @Override
+        Object parse(String value) {
+            final ResourceLocation id = ResourceLocation.tryCreate(value);
+            return id != null ? RegistryKey.getOrCreateKey(Registry.WORLD_KEY, id) : null;
+        }
+
+        @Nullable
+        @Override
+        Object extract(PermissionContext context) {
+            final World world = context.getNullable(StandardContextKeys.WORLD);
+            return world != null ? world.getDimensionKey() : null;
+        }
+    };
+
+    private final String configKey;
+    private final ContextKey<?> contextKey;
+
+    RuleCondition(String configKey, ContextKey<?> contextKey) {
+        this.configKey = configKey;
+        this.contextKey = contextKey;
+    }
+
+    /**
+     * Return the key of this condition in a rule table of the config.
+     *
+     * @return The config key
+     */
+    public String getConfigKey() {
+        return configKey;
+    }
+
+    /**
+     * Return the context key which is read by this condition.
+     *
+     * @return The context key
+     */
+    public ContextKey<?> getContextKey() {
+        return contextKey;
+    }
+
+    /**
+     * Parse the given config value of this condition into a discriminator, or {@code null} if the value is not valid.
+     */
+    @Nullable
+    abstract Object parse(String value);
+
+    /**
+     * Extract the discriminator of this condition from the given context, or {@code null} if the context has no value for
+     * the key of this condition.
+     */
+    @Nullable
+    abstract Object extract(PermissionContext context);
+}
@@ -0,0 +1,196 @@
+package dev.socketmods.socketperms.rules;
+
+import com.electronwill.nightconfig.core.UnmodifiableConfig;
+import dev.socketmods.socketperms.SocketPermissionHandler;
+import dev.socketmods.socketperms.api.IPermissionValue;
+import dev.socketmods.socketperms.api.PermissionNode;
+import dev.socketmods.socketperms.api.context.ContextKey;
+import net.minecraft.util.ResourceLocation;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * The compiled context-dependent rules of all permission nodes.
+ * <p>
+ * Rules are declared in the {@code rules} array of tables in the permissions config. Each rule has a {@code node}, a {@code
+ * value}, and any number of conditions keyed by the {@linkplain RuleCondition#getConfigKey() config key} of a {@link
+ * RuleCondition}. A condition is either a single string or a list of strings, any of which may match:
+ * <pre>
+ * [[rules]]
+ * node = "socketperms:interact.block"
+ * value = false
+ * world = "minecraft:the_nether"
+ * block = ["minecraft:chest", "minecraft:barrel"]
+ * </pre>
+ * <p>
+ * The rules of each node are compiled into a {@link RuleTree}, stored in an array indexed by the {@linkplain
+ * PermissionNode#getId() ID of the node handle}. A node with no rules costs a single array access.
+ * <p>
+ * This class is immutable and thread-safe to access.
+ */
+public final class RuleSet {
+    private static final Logger LOGGER = LogManager.getLogger();
+    /**
+     * An empty rule set.
+     */
+    public static final RuleSet EMPTY = new RuleSet(new RuleTree[0], 0, Collections.emptySet());
+
+    private final RuleTree[] byId;
+    private final int ruleCount;
+    private final boolean[] usedKeys;
+
+    private RuleSet(RuleTree[] byId, int ruleCount, Set<ContextKey<?>> usedKeys) {
+        this.byId = byId;
+        this.ruleCount = ruleCount;
+        int maxOrdinal = -1;
+        for (ContextKey<?> key : usedKeys) {
+            maxOrdinal = Math.max(maxOrdinal, key.getOrdinal());
+        }
+        this.usedKeys = new boolean[maxOrdinal + 1];
+        for (ContextKey<?> key : usedKeys) {
+            this.usedKeys[key.getOrdinal()] = true;
+        }
+    }
+
+    /**
+     * Return the rule tree for the given permission node handle, or {@code null} if the node has no rules.
+     *
+     * @param node The permission node handle
+     *
+     * @return The rule tree for the node, or {@code null} if the node has no rules
+     */
+    @Nullable
+    public RuleTree get(PermissionNode node) {
+        final int id = node.getId();
+        return id < byId.length ? byId[id] : null;
+    }
+
+    /**
+     * Return {@code true} if any rule has a condition on the given context key, otherwise {@code false}.
+     *
+     * @param key The context key
+     *
+     * @return {@code true} if the context key is used by any rule, otherwise {@code false}
+     */
+    public boolean usesContext(ContextKey<?> key) {
+        final int ordinal = key.getOrdinal();
+        return ordinal < usedKeys.length && usedKeys[ordinal];
+    }
+
+    /**
+     * Return {@code true} if there are no rules in this rule set, otherwise {@code false}.
+     *
+     * @return {@code true} if there are no rules, otherwise {@code false}
+     */
+    public boolean isEmpty() {
+        return ruleCount == 0;
+    }
+
+    /**
+     * Return the number of rules in this rule set.
+     *
+     * @return The number of rules
+     */
+    public int size() {
+        return ruleCount;
+    }
+
+    /**
+     * Compile the given rule tables into a rule set.
+     * <p>
+     * Rules which are missing their node or value, or which have an unknown condition or an invalid condition value, are
+     * skipped with a warning.
+     *
+     * @param rules The rule tables from the config
+     *
+     * @return The compiled rule set
+     */
+    public static RuleSet compile(List<?> rules) {
+        final Map<ResourceLocation, List<Rule>> byNode = new LinkedHashMap<>();
+        final Set<ContextKey<?>> usedKeys = Collections.newSetFromMap(new IdentityHashMap<>());
+        int ruleCount = 0;
+        for (int i = 0; i < rules.size(); i++) {
+            final Object table = rules.get(i);
+            final Rule rule = table instanceof UnmodifiableConfig ? parse(i, (UnmodifiableConfig) table) : null;
+            if (rule == null) continue;
+            byNode.computeIfAbsent(rule.node, k -> new ArrayList<>()).add(rule);
+            for (RuleCondition condition : rule.conditions.keySet()) {
+                usedKeys.add(condition.getContextKey());
+            }
+            ruleCount++;
+        }
+        if (ruleCount == 0) return EMPTY;
+
+        int maxId = -1;
+        for (ResourceLocation node : byNode.keySet()) {
+            maxId = Math.max(maxId, PermissionNode.of(node).getId());
+        }
+        final RuleTree[] byId = new RuleTree[maxId + 1];
+        for (Map.Entry<ResourceLocation, List<Rule>> entry : byNode.entrySet()) {
+            byId[PermissionNode.of(entry.getKey()).getId()] = RuleTree.build(entry.getValue());
+        }
+        return new RuleSet(byId, ruleCount, usedKeys);
+    }
+
+    @Nullable
+    private static Rule parse(int index, UnmodifiableConfig table) {
+        final Object nodeValue = table.get("node");
+        final ResourceLocation node = nodeValue instanceof String ? ResourceLocation.tryCreate((String) nodeValue) : null;
+        if (node == null) {
+            LOGGER.warn("Skipping rule #{} with missing or invalid node: {}", index, nodeValue);
+            return null;
+        }
+        final IPermissionValue value = SocketPermissionHandler.wrapValue(table.get("value"));
+        if (value.isEmpty()) {
+            LOGGER.warn("Skipping rule #{} for {} with missing or unsupported value", index, node);
+            return null;
+        }
+
+        final EnumMap<RuleCondition, Set<Object>> conditions = new EnumMap<>(RuleCondition.class);
+        for (UnmodifiableConfig.Entry entry : table.entrySet()) {
+            final String key = entry.getKey();
+            if (key.equals("node") || key.equals("value")) continue;
+            final RuleCondition condition = byConfigKey(key);
+            if (condition == null) {
+                LOGGER.warn("Skipping rule #{} for {} with unknown condition {}", index, node, key);
+                return null;
+            }
+            final Object conditionValue = entry.getValue();
+            final List<?> values = conditionValue instanceof List ? (List<?>) conditionValue
+                : Collections.singletonList(conditionValue);
+            final Set<Object> allowed = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Object raw : values) {
+                final Object discriminator = raw instanceof String ? condition.parse((String) raw) : null;
+                if (discriminator == null) {
+                    LOGGER.warn("Skipping rule #{} for {} with invalid {} condition: {}", index, node, key, raw);
+                    return null;
+                }
+                allowed.add(discriminator);
+            }
+            if (allowed.isEmpty()) {
+                LOGGER.warn("Skipping rule #{} for {} with empty {} condition", index, node, key);
+                return null;
+            }
+            conditions.put(condition, allowed);
+        }
+        return new Rule(node, value, conditions);
+    }
+
+    @Nullable
+    private static RuleCondition byConfigKey(String key) {
+        for (RuleCondition condition : RuleCondition.values()) {
+            if (condition.getConfigKey().equals(key)) return condition;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,120 @@
+package dev.socketmods.socketperms.rules;
+
+import dev.socketmods.socketperms.api.IPermissionValue;
+import dev.socketmods.socketperms.api.context.PermissionContext;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * A decision tree of the rules for a single permission node.
+ * <p>
+ * Each branch of the tree tests one {@link RuleCondition}, in the declaration order of the conditions (from most to least
+ * selective). The discriminator extracted from the context is looked up by identity among the branch's children; if the
+ * matching child yields no value, or there is no matching child, evaluation falls back to the rules which do not constrain
+ * that condition.
+ * <p>
+ * As a result, when several rules match a context, a rule which constrains a more selective condition takes precedence over
+ * one which does not. Among rules with the same conditions, the rule declared last takes precedence.
+ * <p>
+ * Trees are immutable and thread-safe to evaluate.
+ */
+public abstract class RuleTree {
+    RuleTree() {
+    }
+
+    /**
+     * Evaluate this tree against the given context, returning the value of the matching rule with the highest precedence,
+     * or {@code null} if no rule matches.
+     *
+     * @param context The permission context
+     *
+     * @return The value of the matching rule, or {@code null} if none matches
+     */
+    @Nullable
+    public abstract IPermissionValue evaluate(PermissionContext context);
+
+    /**
+     * Build a decision tree from the given rules, in order of declaration. All rules must be for the same node.
+     */
+    @Nullable
+    static RuleTree build(List<Rule> rules) {
+        return build(rules, 0);
+    }
+
+    @Nullable
+    private static RuleTree build(List<Rule> rules, int firstCondition) {
+        if (rules.isEmpty()) return null;
+        final RuleCondition[] conditions = RuleCondition.values();
+
+        for (int i = firstCondition; i < conditions.length; i++) {
+            final RuleCondition condition = conditions[i];
+            final Map<Object, List<Rule>> constrained = new IdentityHashMap<>();
+            final List<Rule> unconstrained = new ArrayList<>();
+            for (Rule rule : rules) {
+                final Set<Object> allowed = rule.conditions.get(condition);
+                if (allowed == null) {
+                    unconstrained.add(rule);
+                    continue;
+                }
+                for (Object discriminator : allowed) {
+                    constrained.computeIfAbsent(discriminator, k -> new ArrayList<>()).add(rule);
+                }
+            }
+            if (constrained.isEmpty()) continue; // No rule constrains this condition, so there is nothing to branch on
+
+            final Map<Object, RuleTree> children = new IdentityHashMap<>(constrained.size());
+            for (Map.Entry<Object, List<Rule>> entry : constrained.entrySet()) {
+                children.put(entry.getKey(), build(entry.getValue(), i + 1));
+            }
+            return new Branch(condition, children, build(unconstrained, i + 1));
+        }
+
+        // No conditions remain, so all of these rules match; the last declared rule wins
+        return new Leaf(rules.get(rules.size() - 1).value);
+    }
+
+    static final class Leaf extends RuleTree {
+        private final IPermissionValue value;
+
+        Leaf(IPermissionValue value) {
+            this.value = value;
+        }
+
+        @Override
+        public IPermissionValue evaluate(PermissionContext context) {
+            return value;
+        }
+    }
+
+    static final class Branch extends RuleTree {
+        private final RuleCondition condition;
+        private final Map<Object, RuleTree> children;
+        @Nullable
+        private final RuleTree otherwise;
+
+        Branch(RuleCondition condition, Map<Object, RuleTree> children, @Nullable RuleTree otherwise) {
+            this.condition = condition;
+            this.children = children;
+            this.otherwise = otherwise;
+        }
+
+        @Nullable
+        @Override
+        public IPermissionValue evaluate(PermissionContext context) {
+            final Object discriminator = condition.extract(context);
+            if (discriminator != null) {
+                final RuleTree child = children.get(discriminator);
+                if (child != null) {
+                    final IPermissionValue value = child.evaluate(context);
+                    if (value != null) return value;
+                }
+            }
+            return otherwise != null ? otherwise.evaluate(context) : null;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package dev.socketmods.socketperms.storage;
+
+import com.google.common.base.Preconditions;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small, fixed-size pool of JDBC connections to one database. Connections are opened on demand up to the size of the
+ * pool, and are validated when borrowed.
+ * <p>
+ * This class is thread-safe.
+ */
+class ConnectionPool {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final long BORROW_TIMEOUT_MILLIS = 10_000L;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final String url;
+    private final int size;
+    private final BlockingQueue<Connection> idle;
+    private int open;
+    private boolean closed;
+
+    ConnectionPool(String url, int size) {
+        Preconditions.checkArgument(size > 0, "Pool size must be positive");
+        this.url = Preconditions.checkNotNull(url, "URL must not be null");
+        this.size = size;
+        this.idle = new ArrayBlockingQueue<>(size);
+    }
+
+    /**
+     * Borrow a connection from the pool, opening a new one if none is idle and the pool is not full, or otherwise waiting
+     * for one to be {@linkplain #release(Connection) released}.
+     */
+    Connection borrow() throws SQLException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BORROW_TIMEOUT_MILLIS);
+        while (true) {
+            Connection connection = idle.poll();
+            if (connection == null && reserve()) {
+                try {
+                    return DriverManager.getConnection(url);
+                } catch (SQLException | RuntimeException e) {
+                    unreserve();
+                    throw e;
+                }
+            }
+            if (connection == null) {
+                try {
+                    connection = idle.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for a connection", e);
+                }
+                if (connection == null) throw new SQLException("Timed out waiting for a connection to " + url);
+            }
+            if (connection.isValid(VALIDATION_TIMEOUT_SECONDS)) return connection;
+            closeQuietly(connection);
+            unreserve();
+        }
+    }
+
+    /**
+     * Return the given borrowed connection to the pool.
+     */
+    void release(Connection connection) {
+        final boolean keep;
+        synchronized (this) {
+            keep = !closed;
+        }
+        if (keep && idle.offer(connection)) return;
+        closeQuietly(connection);
+        unreserve();
+    }
+
+    /**
+     * Close all idle connections, and close borrowed connections as they are released.
+     */
+    void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            closeQuietly(connection);
+            unreserve();
+        }
+    }
+
+    private synchronized boolean reserve() throws SQLException {
+        if (closed) throw new SQLException("Connection pool is closed");
+        if (open >= size) return false;
+        open++;
+        return true;
+    }
+
+    private synchronized void unreserve() {
+        open--;
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            LOGGER.debug("Failed to close database connection", e);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package dev.socketmods.socketperms.storage;
+
+import com.google.common.base.Preconditions;
+import dev.socketmods.socketperms.NodeIndex;
+import dev.socketmods.socketperms.PermissionEdit;
+import dev.socketmods.socketperms.SocketPermissionHandler;
+import dev.socketmods.socketperms.api.IPermissionValue;
+import dev.socketmods.socketperms.groups.PermissionUser;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link PermissionStorage} in a relational database, accessed through JDBC. The statements are plain SQL which runs on
+ * embedded engines such as H2 and SQLite, as well as on server databases; the JDBC driver of the database must be on the
+ * classpath.
+ * <p>
+ * Users are stored in two tables, for their groups and their permission overrides, keyed by the UUID of the user. A user is
+ * loaded with a single prepared query across both tables. Edits are coalesced so that only the last edit of each node is
+ * written, then written in one transaction with a batched delete and a batched insert.
+ */
+public class JdbcPermissionStorage implements PermissionStorage {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final String CREATE_GROUPS_TABLE = "CREATE TABLE IF NOT EXISTS socketperms_user_groups ("
+        + "uuid CHAR(36) NOT NULL, position INT NOT NULL, group_name VARCHAR(255) NOT NULL, "
+        + "PRIMARY KEY (uuid, position))";
+    private static final String CREATE_PERMISSIONS_TABLE = "CREATE TABLE IF NOT EXISTS socketperms_user_permissions ("
+        + "uuid CHAR(36) NOT NULL, node VARCHAR(255) NOT NULL, "
+        + "boolean_value BOOLEAN, long_value BIGINT, double_value DOUBLE PRECISION, "
+        + "PRIMARY KEY (uuid, node))";
+    private static final String SELECT_USER = "SELECT 0 AS kind, position, group_name AS name, "
+        + "CAST(NULL AS BOOLEAN) AS boolean_value, CAST(NULL AS BIGINT) AS long_value, "
+        + "CAST(NULL AS DOUBLE PRECISION) AS double_value FROM socketperms_user_groups WHERE uuid = ? "
+        + "UNION ALL SELECT 1, 0, node, boolean_value, long_value, double_value "
+        + "FROM socketperms_user_permissions WHERE uuid = ? ORDER BY kind, position";
+    private static final String DELETE_PERMISSION = "DELETE FROM socketperms_user_permissions WHERE uuid = ? AND node = ?";
+    private static final String INSERT_PERMISSION = "INSERT INTO socketperms_user_permissions "
+        + "(uuid, node, boolean_value, long_value, double_value) VALUES (?, ?, ?, ?, ?)";
+
+    private final ConnectionPool pool;
+
+    private JdbcPermissionStorage(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Open a storage on the database at the given JDBC URL, creating its tables if they do not exist.
+     *
+     * @param url      The JDBC URL of the database
+     * @param poolSize The maximum number of open connections to the database
+     *
+     * @return The storage
+     *
+     * @throws IOException If the database could not be opened
+     */
+    public static JdbcPermissionStorage open(String url, int poolSize) throws IOException {
+        final ConnectionPool pool = new ConnectionPool(url, poolSize);
+        try {
+            final Connection connection = pool.borrow();
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate(CREATE_GROUPS_TABLE);
+                statement.executeUpdate(CREATE_PERMISSIONS_TABLE);
+            } finally {
+                pool.release(connection);
+            }
+        } catch (SQLException e) {
+            pool.close();
+            throw new IOException("Failed to open permission storage database", e);
+        }
+        return new JdbcPermissionStorage(pool);
+    }
+
+    @Nullable
+    @Override
+    public PermissionUser loadUser(UUID id) throws IOException {
+        final String key = id.toString();
+        try {
+            final Connection connection = pool.borrow();
+            try (PreparedStatement statement = connection.prepareStatement(SELECT_USER)) {
+                statement.setString(1, key);
+                statement.setString(2, key);
+                try (ResultSet results = statement.executeQuery()) {
+                    return readUser(id, results);
+                }
+            } finally {
+                pool.release(connection);
+            }
+        } catch (SQLException e) {
+            throw new IOException("Failed to load the permissions of user " + id, e);
+        }
+    }
+
+    @Nullable
+    private static PermissionUser readUser(UUID id, ResultSet results) throws SQLException {
+        boolean found = false;
+        final List<String> groups = new ArrayList<>();
+        final NodeIndex.Builder permissions = NodeIndex.builder();
+        while (results.next()) {
+            found = true;
+            final String name = results.getString("name");
+            if (results.getInt("kind") == 0) {
+                groups.add(name);
+                continue;
+            }
+            final IPermissionValue value = readValue(results);
+            if (value.isEmpty() || !permissions.put(name, value)) {
+                LOGGER.warn("Skipping invalid stored permission node {} of user {}", name, id);
+            }
+        }
+        return found ? new PermissionUser(id, groups, permissions.build()) : null;
+    }
+
+    private static IPermissionValue readValue(ResultSet results) throws SQLException {
+        final boolean booleanValue = results.getBoolean("boolean_value");
+        if (!results.wasNull()) return SocketPermissionHandler.wrapValue(booleanValue);
+        final long longValue = results.getLong("long_value");
+        if (!results.wasNull()) return SocketPermissionHandler.wrapValue(longValue);
+        final double doubleValue = results.getDouble("double_value");
+        return results.wasNull() ? IPermissionValue.EMPTY : SocketPermissionHandler.wrapValue(doubleValue);
+    }
+
+    @Override
+    public void applyEdits(List<PermissionEdit> edits) throws IOException {
+        // Only the last edit of each node of each user needs to be written
+        final Map<List<String>, PermissionEdit> coalesced = new LinkedHashMap<>();
+        for (PermissionEdit edit : edits) {
+            Preconditions.checkArgument(edit.getScope() == PermissionEdit.Scope.USER, "Not a user edit: %s", edit);
+            final List<String> key = new ArrayList<>(2);
+            key.add(edit.getTarget());
+            key.add(edit.getNode());
+            coalesced.remove(key);
+            coalesced.put(key, edit);
+        }
+        if (coalesced.isEmpty()) return;
+
+        try {
+            final Connection connection = pool.borrow();
+            try {
+                connection.setAutoCommit(false);
+                try (PreparedStatement delete = connection.prepareStatement(DELETE_PERMISSION);
+                     PreparedStatement insert = connection.prepareStatement(INSERT_PERMISSION)) {
+                    boolean inserts = false;
+                    for (PermissionEdit edit : coalesced.values()) {
+                        delete.setString(1, edit.getTarget());
+                        delete.setString(2, edit.getNode());
+                        delete.addBatch();
+                        if (edit.getValue() == null) continue;
+                        insert.setString(1, edit.getTarget());
+                        insert.setString(2, edit.getNode());
+                        setValue(insert, SocketPermissionHandler.unwrapValue(edit.getValue()));
+                        insert.addBatch();
+                        inserts = true;
+                    }
+                    delete.executeBatch();
+                    if (inserts) insert.executeBatch();
+                    connection.commit();
+                } catch (SQLException | RuntimeException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            } finally {
+                pool.release(connection);
+            }
+        } catch (SQLException e) {
+            throw new IOException("Failed to write " + coalesced.size() + " permission edits", e);
+        }
+    }
+
+    private static void setValue(PreparedStatement statement, @Nullable Object value) throws SQLException {
+        if (value instanceof Boolean) {
+            statement.setBoolean(3, (Boolean) value);
+        } else {
+            statement.setNull(3, Types.BOOLEAN);
+        }
+        if (value instanceof Long) {
+            statement.setLong(4, (Long) value);
+        } else {
+            statement.setNull(4, Types.BIGINT);
+        }
+        if (value instanceof Double) {
+            statement.setDouble(5, (Double) value);
+        } else {
+            statement.setNull(5, Types.DOUBLE);
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.close();
+    }
+}
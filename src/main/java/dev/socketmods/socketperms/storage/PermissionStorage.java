@@ -0,0 +1,46 @@
+package dev.socketmods.socketperms.storage;
+
+import dev.socketmods.socketperms.PermissionEdit;
+import dev.socketmods.socketperms.groups.PermissionUser;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import javax.annotation.Nullable;
+
+/**
+ * A storage backend for the permission data of users, in place of the users section of the permissions file.
+ * <p>
+ * Storage calls are blocking, and are never made on the server thread: a {@link StorageWorker} runs lookups on a small pool
+ * of I/O threads and writes edits in batches on a writer thread. The compiled, in-memory permission snapshot remains the
+ * read path for permission checks; users are loaded from storage into it when they log in.
+ * <p>
+ * Implementations must be thread-safe.
+ */
+public interface PermissionStorage {
+    /**
+     * Load the user with the given UUID, or return {@code null} if the storage holds no data for the user.
+     *
+     * @param id The UUID of the user
+     *
+     * @return The user, or {@code null} if there is no data for the user
+     *
+     * @throws IOException If the user could not be loaded
+     */
+    @Nullable
+    PermissionUser loadUser(UUID id) throws IOException;
+
+    /**
+     * Apply the given user edits to the storage, in order, as a single unit.
+     *
+     * @param edits The edits, all of {@linkplain PermissionEdit.Scope#USER user scope}
+     *
+     * @throws IOException If the edits could not be applied; none of them are applied
+     */
+    void applyEdits(List<PermissionEdit> edits) throws IOException;
+
+    /**
+     * Close the storage, releasing its resources.
+     */
+    void close();
+}
@@ -0,0 +1,173 @@
+package dev.socketmods.socketperms.storage;
+
+import com.google.common.base.Preconditions;
+import dev.socketmods.socketperms.PermissionEdit;
+import dev.socketmods.socketperms.groups.PermissionUser;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Runs the blocking calls of a {@link PermissionStorage} off the server thread. User lookups run on a small pool of loader
+ * threads, sized to the connection pool of the storage. Edits are queued and written by a single writer thread, which takes
+ * all edits queued at the time and applies them as one batch, so that a burst of edits costs one transaction.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class StorageWorker {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final int MAX_BATCH_SIZE = 256;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10L;
+
+    private final PermissionStorage storage;
+    private final ExecutorService loaders;
+    private final BlockingQueue<PendingEdit> edits = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private boolean closed;
+
+    /**
+     * Create a worker for the given storage, and start its writer thread.
+     *
+     * @param storage The storage
+     * @param loaders The number of loader threads
+     */
+    public StorageWorker(PermissionStorage storage, int loaders) {
+        Preconditions.checkArgument(loaders > 0, "Number of loader threads must be positive");
+        this.storage = Preconditions.checkNotNull(storage, "Storage must not be null");
+        this.loaders = Executors.newFixedThreadPool(loaders, runnable -> {
+            final Thread thread = new Thread(runnable, "SocketPerms Storage Loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.writer = new Thread(this::runWriter, "SocketPerms Storage Writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Load the user with the given UUID from the storage on a loader thread.
+     *
+     * @param id The UUID of the user
+     *
+     * @return A future completing with the user, or with {@code null} if the storage holds no data for the user
+     */
+    public CompletableFuture<PermissionUser> load(UUID id) {
+        final CompletableFuture<PermissionUser> future = new CompletableFuture<>();
+        try {
+            loaders.execute(() -> {
+                try {
+                    future.complete(storage.loadUser(id));
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Queue the given user edit to be written to the storage.
+     *
+     * @param edit The edit, of {@linkplain PermissionEdit.Scope#USER user scope}
+     *
+     * @return A future completing once the edit is written to the storage
+     */
+    public CompletableFuture<Void> write(PermissionEdit edit) {
+        Preconditions.checkArgument(edit.getScope() == PermissionEdit.Scope.USER, "Not a user edit: %s", edit);
+        final PendingEdit pending = new PendingEdit(edit);
+        synchronized (this) {
+            // Checked under the lock so that no edit is queued after the shutdown marker
+            if (!closed) {
+                edits.add(pending);
+                return pending.future;
+            }
+        }
+        pending.future.completeExceptionally(new IOException("Permission storage is closed"));
+        return pending.future;
+    }
+
+    private void runWriter() {
+        final List<PendingEdit> batch = new ArrayList<>();
+        while (true) {
+            try {
+                final PendingEdit first = edits.take();
+                if (first.edit == null) break; // Shutdown marker
+                batch.add(first);
+            } catch (InterruptedException e) {
+                break;
+            }
+            edits.drainTo(batch, MAX_BATCH_SIZE - 1);
+            boolean shutdown = false;
+            if (batch.get(batch.size() - 1).edit == null) {
+                batch.remove(batch.size() - 1);
+                shutdown = true;
+            }
+            writeBatch(batch);
+            batch.clear();
+            if (shutdown) break;
+        }
+    }
+
+    private void writeBatch(List<PendingEdit> batch) {
+        final List<PermissionEdit> toWrite = new ArrayList<>(batch.size());
+        for (PendingEdit pending : batch) {
+            toWrite.add(pending.edit);
+        }
+        try {
+            storage.applyEdits(toWrite);
+            for (PendingEdit pending : batch) {
+                pending.future.complete(null);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Failed to write {} permission edits to storage", batch.size(), e);
+            for (PendingEdit pending : batch) {
+                pending.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Write all queued edits, stop the loader and writer threads, and close the storage.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            edits.add(new PendingEdit(null));
+        }
+        loaders.shutdown();
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(SHUTDOWN_TIMEOUT_SECONDS));
+            if (!loaders.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOGGER.warn("Timed out waiting for permission storage lookups to finish");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) LOGGER.warn("Timed out waiting for permission storage writes to finish");
+        storage.close();
+    }
+
+    private static final class PendingEdit {
+        @Nullable
+        final PermissionEdit edit;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        PendingEdit(@Nullable PermissionEdit edit) {
+            this.edit = edit;
+        }
+    }
+}
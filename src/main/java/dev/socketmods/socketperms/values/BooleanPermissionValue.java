@@ -0,0 +1,60 @@
+package dev.socketmods.socketperms.values;
+
+import dev.socketmods.socketperms.api.IPermissionValue;
+import dev.socketmods.socketperms.api.OptionalBoolean;
+
+/**
+ * An immutable permission value holding a {@code boolean}.
+ * <p>
+ * There are only two instances of this class, {@link #TRUE} and {@link #FALSE}, which are shared by all boolean permission
+ * values.
+ */
+public final class BooleanPermissionValue implements IPermissionValue {
+    /**
+     * The shared permission value for {@code true}.
+     */
+    public static final BooleanPermissionValue TRUE = new BooleanPermissionValue(true);
+    /**
+     * The shared permission value for {@code false}.
+     */
+    public static final BooleanPermissionValue FALSE = new BooleanPermissionValue(false);
+
+    private final boolean value;
+    private final OptionalBoolean optBool;
+
+    private BooleanPermissionValue(boolean value) {
+        this.value = value;
+        this.optBool = OptionalBoolean.of(value);
+    }
+
+    /**
+     * Return the shared permission value for the given {@code boolean}.
+     *
+     * @param value The boolean value
+     *
+     * @return The shared permission value
+     */
+    public static BooleanPermissionValue of(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return false;
+    }
+
+    @Override
+    public OptionalBoolean asBoolean() {
+        return optBool;
+    }
+
+    @Override
+    public boolean getBoolean(boolean def) {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "PermissionValue[" + value + "]";
+    }
+}
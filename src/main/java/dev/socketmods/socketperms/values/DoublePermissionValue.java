@@ -0,0 +1,99 @@
+package dev.socketmods.socketperms.values;
+
+import dev.socketmods.socketperms.api.IPermissionValue;
+
+import java.util.OptionalDouble;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+
+/**
+ * An immutable permission value holding a floating-point number.
+ * <p>
+ * The value is available as an {@code int} and a {@code long} (narrowed, as by a cast) and a {@code double}. The optionals
+ * for each are created once on construction, so the accessors do not allocate. Instances for {@code 0.0} and {@code 1.0}
+ * are shared; use {@link #of(double)} to obtain an instance.
+ */
+@SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+public final class DoublePermissionValue implements IPermissionValue {
+    private static final DoublePermissionValue ZERO = new DoublePermissionValue(0.0D);
+    private static final DoublePermissionValue ONE = new DoublePermissionValue(1.0D);
+
+    private final double value;
+    private final OptionalInt optInt;
+    private final OptionalLong optLong;
+    private final OptionalDouble optDouble;
+
+    private DoublePermissionValue(double value) {
+        this.value = value;
+        this.optInt = OptionalInt.of((int) value);
+        this.optLong = OptionalLong.of((long) value);
+        this.optDouble = OptionalDouble.of(value);
+    }
+
+    /**
+     * Return a permission value for the given {@code double}, which is a shared instance for common values.
+     *
+     * @param value The floating-point value
+     *
+     * @return The permission value
+     */
+    public static DoublePermissionValue of(double value) {
+        // Compare raw bits, so that -0.0 is not folded into 0.0
+        final long bits = Double.doubleToRawLongBits(value);
+        if (bits == Double.doubleToRawLongBits(0.0D)) return ZERO;
+        if (bits == Double.doubleToRawLongBits(1.0D)) return ONE;
+        return new DoublePermissionValue(value);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return false;
+    }
+
+    @Override
+    public OptionalInt asInt() {
+        return optInt;
+    }
+
+    @Override
+    public OptionalLong asLong() {
+        return optLong;
+    }
+
+    @Override
+    public OptionalDouble asDouble() {
+        return optDouble;
+    }
+
+    @Override
+    public int getInt(int def) {
+        return (int) value;
+    }
+
+    @Override
+    public long getLong(long def) {
+        return (long) value;
+    }
+
+    @Override
+    public double getDouble(double def) {
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return Double.compare(value, ((DoublePermissionValue) o).value) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Double.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+        return "PermissionValue[" + (int) value + "," + (long) value + "L," + value + "D]";
+    }
+}
@@ -0,0 +1,105 @@
+package dev.socketmods.socketperms.values;
+
+import dev.socketmods.socketperms.api.IPermissionValue;
+
+import java.util.OptionalDouble;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+
+/**
+ * An immutable permission value holding an integral number.
+ * <p>
+ * The value is available as an {@code int} (narrowed, as by a cast), a {@code long} and a {@code double}. The optionals for
+ * each are created once on construction, so the accessors do not allocate. Instances for small values are interned and
+ * shared; use {@link #of(long)} to obtain an instance.
+ */
+@SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+public final class LongPermissionValue implements IPermissionValue {
+    private static final int CACHE_LOW = -128;
+    private static final int CACHE_HIGH = 1024;
+    private static final LongPermissionValue[] CACHE = new LongPermissionValue[CACHE_HIGH - CACHE_LOW + 1];
+
+    static {
+        for (int i = 0; i < CACHE.length; i++) {
+            CACHE[i] = new LongPermissionValue(i + CACHE_LOW);
+        }
+    }
+
+    private final long value;
+    private final OptionalInt optInt;
+    private final OptionalLong optLong;
+    private final OptionalDouble optDouble;
+
+    private LongPermissionValue(long value) {
+        this.value = value;
+        this.optInt = OptionalInt.of((int) value);
+        this.optLong = OptionalLong.of(value);
+        this.optDouble = OptionalDouble.of(value);
+    }
+
+    /**
+     * Return a permission value for the given {@code long}, which is a shared instance if the value is small.
+     *
+     * @param value The integral value
+     *
+     * @return The permission value
+     */
+    public static LongPermissionValue of(long value) {
+        if (value >= CACHE_LOW && value <= CACHE_HIGH) {
+            return CACHE[(int) value - CACHE_LOW];
+        }
+        return new LongPermissionValue(value);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return false;
+    }
+
+    @Override
+    public OptionalInt asInt() {
+        return optInt;
+    }
+
+    @Override
+    public OptionalLong asLong() {
+        return optLong;
+    }
+
+    @Override
+    public OptionalDouble asDouble() {
+        return optDouble;
+    }
+
+    @Override
+    public int getInt(int def) {
+        return (int) value;
+    }
+
+    @Override
+    public long getLong(long def) {
+        return value;
+    }
+
+    @Override
+    public double getDouble(double def) {
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return value == ((LongPermissionValue) o).value;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+        return "PermissionValue[" + (int) value + "," + value + "L," + (double) value + "D]";
+    }
+}
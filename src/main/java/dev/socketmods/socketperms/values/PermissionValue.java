@@ -49,6 +49,26 @@ public class PermissionValue implements IPermissionValue {
         return optDouble;
     }
 
+    @Override
+    public boolean getBoolean(boolean def) {
+        return optBool.isPresent() ? optBool.getAsBoolean() : def;
+    }
+
+    @Override
+    public int getInt(int def) {
+        return optInt.isPresent() ? optInt.getAsInt() : def;
+    }
+
+    @Override
+    public long getLong(long def) {
+        return optLong.isPresent() ? optLong.getAsLong() : def;
+    }
+
+    @Override
+    public double getDouble(double def) {
+        return optDouble.isPresent() ? optDouble.getAsDouble() : def;
+    }
+
     @Override
     public String toString() {
         if (isEmpty) return "EMPTY";